@@ -0,0 +1,342 @@
+package salsa20;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/*
+ * Punto de entrada por linea de comandos, sin interfaz grafica, para cifrar o descifrar muchos archivos a la vez:
+ *
+ *   java -cp salsa20.jar salsa20.BatchCli cifrar|descifrar --key <32 caracteres> [opciones] <archivos, directorios o globs>...
+ *
+ * Opciones:
+ *   --modo imagen|archivo  imagen (por defecto) cifra los pixeles de imagenes; archivo cifra los bytes del archivo tal cual
+ *   --formato png|bmp|pam  formato de las imagenes generadas (por defecto png), ver FormatoImagen
+ *   --compresion <-1..9>   nivel de deflate del PNG generado (-1 es el por defecto); 0 solo almacena, que es lo mas rapido para criptogramas
+ *   --salida <dir>         directorio de salida (por defecto, el mismo directorio de cada archivo)
+ *   --hilos <n>            cantidad de hilos de computo (por defecto, la cantidad de procesadores)
+ *   --rondas 20|12|8       variante de Salsa20 (por defecto Salsa20/20)
+ *   --metricas             al final muestra el tiempo por etapa (decodificar, keystream, XOR, codificar...), ver Metricas
+ *
+ * Cada archivo se lee, se decodifica, se codifica y se escribe en un hilo virtual (o un hilo de plataforma si la JVM no los tiene),
+ * y solo el keystream y el XOR de cada tramo se mandan a un pool fijo de hilos de computo. Como mucho hay ARCHIVOS_POR_HILO archivos
+ * abiertos por hilo de computo, asi que sin hilos virtuales la cantidad de hilos de plataforma no depende de la cantidad de archivos.
+ * La salida de a.png es a.cifrado.png (o a.descifrado.png, o con la extension del formato elegido); si dos archivos generarian la misma
+ * salida (a.png y a.bmp, o dos a.png de directorios distintos con --salida) el segundo se informa como error y no se procesa.
+ * En modo imagen se pueden descifrar tambien los BMP y PAM generados. Al final se muestra el throughput total.
+ */
+public class BatchCli {
+
+	private static final String USO = "Uso: BatchCli cifrar|descifrar --key <32 caracteres> [--modo imagen|archivo] [--salida <dir>] "
+			+ "[--formato png|bmp|pam] [--compresion <-1..9>] [--hilos <n>] [--rondas 20|12|8] [--metricas] <archivos, directorios o globs>...";
+
+	// Archivos en curso por hilo de computo: mientras unos leen o escriben, otros tienen tramos listos para cifrar
+	private static final int ARCHIVOS_POR_HILO = 4;
+
+	// Tamaño de los tramos en modo archivo
+	private static final int TAM_TRAMO = 1024 * 1024;
+
+	private final boolean cifrar;
+	private final Salsa20Key key;
+	private final boolean modoImagen;
+	private final TiledImageCipher cifradorImagenes;
+	private final Path dirSalida;
+	private final int hilos;
+
+	private final AtomicLong bytesTotales = new AtomicLong();
+	private final AtomicInteger errores = new AtomicInteger();
+
+	BatchCli(boolean cifrar, Salsa20Key key, boolean modoImagen, TiledImageCipher cifradorImagenes, Path dirSalida, int hilos) {
+		this.cifrar = cifrar;
+		this.key = key;
+		this.modoImagen = modoImagen;
+		this.cifradorImagenes = cifradorImagenes;
+		this.dirSalida = dirSalida;
+		this.hilos = hilos;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		if (args.length < 1 || (!args[0].equals("cifrar") && !args[0].equals("descifrar"))) {
+			salirConError(USO);
+		}
+
+		String keyString = null;
+		String modo = "imagen";
+		Path dirSalida = null;
+		int hilos = Runtime.getRuntime().availableProcessors();
+		int rondas = Salsa20.RONDAS;
+		FormatoImagen formato = FormatoImagen.PNG;
+		int compresion = Deflater.DEFAULT_COMPRESSION;
+		List<String> entradas = new ArrayList<>();
+
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+			case "--key":
+				keyString = valor(args, ++i);
+				break;
+			case "--modo":
+				modo = valor(args, ++i);
+				break;
+			case "--salida":
+				dirSalida = Paths.get(valor(args, ++i));
+				break;
+			case "--formato":
+				try {
+					formato = FormatoImagen.deNombre(valor(args, ++i));
+				} catch (IllegalArgumentException e) {
+					salirConError(e.getMessage());
+				}
+				break;
+			case "--compresion":
+				compresion = entero(args, ++i);
+				break;
+			case "--hilos":
+				hilos = entero(args, ++i);
+				break;
+			case "--rondas":
+				rondas = entero(args, ++i);
+				break;
+			case "--metricas":
+				Metricas.activar();
+				break;
+			default:
+				entradas.add(args[i]);
+			}
+		}
+
+		if (keyString == null || keyString.getBytes().length != 32) {
+			salirConError("La key debe tener una longitud de 32 caracteres");
+		}
+		if (!modo.equals("imagen") && !modo.equals("archivo")) {
+			salirConError("El modo debe ser imagen o archivo");
+		}
+		if (rondas != 8 && rondas != 12 && rondas != 20) {
+			salirConError("La cantidad de rondas debe ser 8, 12 o 20");
+		}
+		if (compresion < Deflater.DEFAULT_COMPRESSION || compresion > Deflater.BEST_COMPRESSION) {
+			salirConError("El nivel de compresion debe estar entre -1 (el por defecto) y 9");
+		}
+		if (hilos <= 0 || entradas.isEmpty()) {
+			salirConError(USO);
+		}
+		if (dirSalida != null) {
+			Files.createDirectories(dirSalida);
+		}
+
+		Salsa20Key key = new Salsa20Key(keyString.getBytes(), rondas);
+		TiledImageCipher cifradorImagenes = new TiledImageCipher(TiledImageCipher.FILAS_POR_FRANJA_POR_DEFECTO, formato, compresion);
+		BatchCli cli = new BatchCli(args[0].equals("cifrar"), key, modo.equals("imagen"), cifradorImagenes, dirSalida, hilos);
+		System.exit(cli.procesar(buscarArchivos(entradas, modo.equals("imagen"))));
+	}
+
+	// Procesa todos los archivos y devuelve el codigo de salida: 0 si todo salio bien, 1 si alguno fallo
+	int procesar(List<Path> archivos) throws InterruptedException {
+		ExecutorService computo = Executors.newFixedThreadPool(hilos, VirtualThreads.hilosDaemon("salsa20-computo"));
+		ExecutorService io = VirtualThreads.porTarea("salsa20-io");
+		Semaphore enCurso = new Semaphore(hilos * ARCHIVOS_POR_HILO);
+		Map<Path, Path> destinos = new HashMap<>();
+		List<Future<?>> tareas = new ArrayList<>();
+		long inicio = System.nanoTime();
+
+		try {
+			for (Path archivo : archivos) {
+				Path destino = destino(archivo);
+				Path anterior = destinos.putIfAbsent(destino.toAbsolutePath().normalize(), archivo);
+
+				if (anterior != null) {
+					errores.incrementAndGet();
+					System.err.println("Error procesando " + archivo + ": la salida " + destino + " ya es la de " + anterior);
+					continue;
+				}
+
+				// Se espera un lugar antes de crear la tarea, asi los hilos de I/O quedan acotados por los archivos en curso
+				enCurso.acquire();
+				tareas.add(io.submit(() -> {
+					try {
+						procesarArchivo(archivo, destino, computo);
+					} finally {
+						enCurso.release();
+					}
+				}));
+			}
+			for (Future<?> tarea : tareas) {
+				try {
+					tarea.get();
+				} catch (ExecutionException e) {
+					errores.incrementAndGet();
+				}
+			}
+		} finally {
+			io.shutdownNow();
+			computo.shutdownNow();
+		}
+
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		System.out.printf("%d archivos, %d errores, %.1f MB en %.2f s (%.1f MB/s)%n", archivos.size(), errores.get(),
+				bytesTotales.get() / 1e6, segundos, bytesTotales.get() / 1e6 / Math.max(segundos, 1e-9));
+		if (Metricas.activas()) {
+			System.out.print(Metricas.resumen());
+		}
+		return errores.get() == 0 ? 0 : 1;
+	}
+
+	// Corre en el hilo de I/O: lee y escribe el archivo y manda cada tramo a cifrar al pool de computo
+	private void procesarArchivo(Path archivo, Path destino, ExecutorService computo) {
+		try {
+			bytesTotales.addAndGet(cifrarArchivo(archivo, destino, computo));
+			System.out.println(archivo + " -> " + destino);
+		} catch (IOException | RuntimeException e) {
+			errores.incrementAndGet();
+			System.err.println("Error procesando " + archivo + ": " + e);
+		}
+	}
+
+	// Devuelve la cantidad de bytes cifrados (los bytes de los pixeles en modo imagen)
+	private long cifrarArchivo(Path archivo, Path destino, ExecutorService computo) throws IOException {
+		long inicio = Metricas.inicio();
+		long total;
+
+		if (modoImagen) {
+			long[] bytesImagen = new long[1];
+			cifradorImagenes.cifrarImagen(archivo.toString(), destino.toString(), key, (procesados, bytes) -> bytesImagen[0] = bytes,
+					computo);
+			total = bytesImagen[0];
+		} else {
+			total = cifrarBytes(archivo, destino, computo);
+		}
+		Metricas.registrar(Etapa.OPERACION, inicio, total);
+		return total;
+	}
+
+	// Modo archivo: lee tramos en este hilo, los cifra en el pool de computo y los escribe. Mismo resultado que MappedFileCipher
+	private long cifrarBytes(Path archivo, Path destino, ExecutorService computo) throws IOException {
+		Salsa20Cipher cifrador = key.newCipher(Salsa20.NONCE);
+		byte[] tramo = new byte[(int) Math.min(TAM_TRAMO, Math.max(Files.size(archivo), 1))];
+		long total = 0;
+		int leidos;
+
+		try (InputStream entrada = Files.newInputStream(archivo); OutputStream salida = Files.newOutputStream(destino)) {
+			while ((leidos = entrada.readNBytes(tramo, 0, tramo.length)) > 0) {
+				int len = leidos;
+				computo.submit(() -> cifrador.update(tramo, 0, len, tramo, 0)).get();
+				salida.write(tramo, 0, leidos);
+				total += leidos;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Se interrumpio el cifrado de " + archivo);
+		} catch (ExecutionException e) {
+			throw new IOException("Fallo el cifrado de " + archivo, e.getCause());
+		}
+		return total;
+	}
+
+	// a.png -> a.cifrado.png (en modo imagen la extension es la del formato de salida)
+	private Path destino(Path archivo) {
+		String nombre = archivo.getFileName().toString();
+		int punto = nombre.lastIndexOf('.');
+		String extension = modoImagen ? cifradorImagenes.formato().extension() : (punto > 0 ? nombre.substring(punto + 1) : "");
+
+		return salida(archivo, dirSalida, cifrar, extension);
+	}
+
+	// Nombre de salida de un archivo: dir/a.cifrado.ext o dir/a.descifrado.ext (sin dir, el directorio del archivo). Lo usa tambien Interface
+	static Path salida(Path archivo, Path dir, boolean cifrar, String extension) {
+		String nombre = archivo.getFileName().toString();
+		int punto = nombre.lastIndexOf('.');
+		String base = punto > 0 ? nombre.substring(0, punto) : nombre;
+
+		return (dir != null ? dir : archivo.toAbsolutePath().getParent())
+				.resolve(base + (cifrar ? ".cifrado" : ".descifrado") + (extension.isEmpty() ? "" : "." + extension));
+	}
+
+	/*
+	 * Expande cada entrada: un archivo se usa tal cual, un directorio aporta sus archivos (solo los PNG, BMP y PAM en modo imagen)
+	 * y una entrada con *, ?, [ o { se toma como glob, relativo al directorio anterior al primer comodin.
+	 */
+	static List<Path> buscarArchivos(List<String> entradas, boolean soloImagenes) throws IOException {
+		List<Path> archivos = new ArrayList<>();
+
+		for (String entrada : entradas) {
+			int comodin = primerComodin(entrada);
+
+			if (comodin >= 0) {
+				int separador = Math.max(entrada.lastIndexOf('/', comodin), entrada.lastIndexOf('\\', comodin));
+				Path base = Paths.get(separador >= 0 ? entrada.substring(0, separador + 1) : ".");
+				PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + entrada);
+
+				try (Stream<Path> paths = Files.walk(base)) {
+					paths.filter(Files::isRegularFile)
+							.filter(p -> matcher.matches(separador >= 0 ? p : base.relativize(p)))
+							.sorted()
+							.forEach(archivos::add);
+				}
+			} else if (Files.isDirectory(Paths.get(entrada))) {
+				try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(entrada))) {
+					for (Path p : dir) {
+						if (Files.isRegularFile(p) && (!soloImagenes || FormatoImagen.esImagenSoportada(p.getFileName().toString()))) {
+							archivos.add(p);
+						}
+					}
+				}
+			} else {
+				archivos.add(Paths.get(entrada));
+			}
+		}
+		return archivos;
+	}
+
+	private static int primerComodin(String entrada) {
+		for (int i = 0; i < entrada.length(); i++) {
+			if ("*?[{".indexOf(entrada.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String valor(String[] args, int i) {
+		if (i >= args.length) {
+			salirConError("Falta el valor de " + args[i - 1]);
+		}
+		return args[i];
+	}
+
+	private static int entero(String[] args, int i) {
+		String texto = valor(args, i);
+
+		try {
+			return Integer.parseInt(texto);
+		} catch (NumberFormatException e) {
+			salirConError("El valor de " + args[i - 1] + " debe ser un numero entero: " + texto);
+			return 0;
+		}
+	}
+
+	private static void salirConError(String mensaje) {
+		System.err.println(mensaje);
+		System.exit(2);
+	}
+}
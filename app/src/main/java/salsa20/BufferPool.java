@@ -0,0 +1,45 @@
+package salsa20;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * Pool de buffers de tamaño fijo para las tareas de I/O que toman un buffer, lo usan un rato y lo devuelven (por ejemplo cada
+ * sentido de una conexion de Salsa20Relay). Se guardan hasta maxRetenidos buffers libres: si hacen falta mas se crean nuevos y los
+ * que sobran al devolverlos quedan para el GC, asi que un pico de conexiones no deja la memoria ocupada para siempre.
+ * Es thread-safe y no bloquea.
+ */
+final class BufferPool {
+
+	private final int tamBuffer;
+	private final BlockingQueue<byte[]> libres;
+
+	BufferPool(int tamBuffer, int maxRetenidos) {
+		if (tamBuffer <= 0 || maxRetenidos <= 0) {
+			throw new IllegalArgumentException("El tamaño de buffer y la cantidad de buffers deben ser positivos");
+		}
+		this.tamBuffer = tamBuffer;
+		this.libres = new ArrayBlockingQueue<>(maxRetenidos);
+	}
+
+	int tamBuffer() {
+		return tamBuffer;
+	}
+
+	byte[] tomar() {
+		byte[] buffer = libres.poll();
+		return buffer != null ? buffer : new byte[tamBuffer];
+	}
+
+	// El buffer puede tener datos de la conexion anterior: quien lo toma solo usa lo que lee en el
+	void devolver(byte[] buffer) {
+		if (buffer.length == tamBuffer) {
+			libres.offer(buffer);
+		}
+	}
+
+	// Buffers libres guardados en el pool
+	int libres() {
+		return libres.size();
+	}
+}
@@ -0,0 +1,203 @@
+package salsa20;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/*
+ * Formato del contenedor cifrado (todos los enteros en little-endian, como el resto de Salsa20):
+ *
+ *   cabecera (40 bytes)  "S20C", version (1 byte), rondas (1 byte), 2 bytes en 0, tamaño de chunk (4 bytes), nonce (8 bytes),
+ *                        verificacion de la key (8 bytes), 4 bytes en 0, posicion del indice (8 bytes, 0 si nunca se cerro)
+ *   chunks               los criptogramas de cada chunk, uno detras de otro
+ *   indice               cantidad de chunks (4), "S20X", y una entrada de 20 bytes por chunk: offset en el texto plano (8),
+ *                        posicion en el archivo (8), largo (4)
+ *
+ * Todo el archivo usa un solo flujo de keystream (key, nonce): el byte del texto plano en el offset p se cifra con el byte p del flujo,
+ * asi que cada chunk se puede descifrar por separado posicionando el cifrador en su offset. Un chunk tiene como maximo el tamaño de chunk
+ * de la cabecera y puede ser mas corto (el ultimo, o uno cerrado antes de tiempo con flush).
+ *
+ * El indice valido es el que apunta la cabecera, y lo que haya en el archivo despues de ese indice se ignora. Al agregar datos los chunks
+ * nuevos y el indice nuevo se escriben despues del indice anterior, que no se toca, y la cabecera pasa a apuntar al indice nuevo recien
+ * cuando esta escrito en disco: si el proceso muere antes, el contenedor sigue teniendo el contenido anterior completo. Cada vez que
+ * se agrega queda un indice viejo entre los chunks.
+ *
+ * La verificacion de la key son 8 bytes derivados de la key y el nonce con HSalsa20 (ver verificacion), para rechazar una key
+ * equivocada al abrir o al agregar en lugar de devolver o agregar datos que no se pueden descifrar. No revela keystream del contenedor.
+ */
+final class ContainerFormat {
+
+	static final int MAGIA_CABECERA = 0x43303253; // "S20C"
+	static final int MAGIA_INDICE = 0x58303253; // "S20X"
+	static final int VERSION = 1;
+
+	static final int TAM_CABECERA = 40;
+	static final int TAM_ENTRADA = 20;
+	static final int TAM_CABECERA_INDICE = 8;
+	static final int TAM_NONCE = 8;
+	static final int TAM_VERIFICACION = 8;
+
+	// Posicion en la cabecera del puntero al indice
+	static final int POS_PUNTERO_INDICE = 32;
+
+	// Completa los 16 bytes de entrada de HSalsa20 despues del nonce al calcular la verificacion de la key
+	private static final byte[] DOMINIO_VERIFICACION = "S20Cverf".getBytes(StandardCharsets.US_ASCII);
+
+	// Tamaño de chunk por defecto del escritor
+	static final int TAM_CHUNK_POR_DEFECTO = 1024 * 1024;
+
+	private ContainerFormat() {
+	}
+
+	// Cabecera de un contenedor recien creado, sin indice todavia
+	static ByteBuffer cabecera(Salsa20Key key, int tamChunk, byte[] nonce) {
+		ByteBuffer b = ByteBuffer.allocate(TAM_CABECERA).order(ByteOrder.LITTLE_ENDIAN);
+
+		b.putInt(MAGIA_CABECERA).put((byte) VERSION).put((byte) key.rondas()).putShort((short) 0).putInt(tamChunk).put(nonce)
+				.put(verificacion(key, nonce)).putInt(0).putLong(0);
+		return b.flip();
+	}
+
+	static ByteBuffer punteroIndice(long posIndice) {
+		return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, posIndice);
+	}
+
+	static ByteBuffer cabeceraIndice(int chunks) {
+		return ByteBuffer.allocate(TAM_CABECERA_INDICE).order(ByteOrder.LITTLE_ENDIAN).putInt(0, chunks).putInt(4, MAGIA_INDICE);
+	}
+
+	// Primeros 8 bytes del keystream de la subkey HSalsa20(key, nonce || "S20Cverf"): depende de la key pero no del keystream de los datos
+	static byte[] verificacion(Salsa20Key key, byte[] nonce) {
+		byte[] entrada = new byte[16];
+		byte[] resultado = new byte[TAM_VERIFICACION];
+
+		System.arraycopy(nonce, 0, entrada, 0, TAM_NONCE);
+		System.arraycopy(DOMINIO_VERIFICACION, 0, entrada, TAM_NONCE, DOMINIO_VERIFICACION.length);
+		key.derivarSubkey(entrada, 0).encrypt(new byte[TAM_NONCE], resultado, 0, TAM_VERIFICACION, resultado, 0);
+		return resultado;
+	}
+
+	// Falla si la key no es la del contenedor. Compara en tiempo constante
+	static void verificarKey(Contenido contenido, Salsa20Key key) throws IOException {
+		if (!MessageDigest.isEqual(contenido.verificacion, verificacion(key, contenido.nonce))) {
+			throw new IOException("La key no corresponde al contenedor");
+		}
+	}
+
+	// Lee exactamente cantidad bytes desde posicion (sin mover la posicion del canal, asi que se puede usar desde varios hilos)
+	static ByteBuffer leer(FileChannel canal, long posicion, int cantidad) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(cantidad).order(ByteOrder.LITTLE_ENDIAN);
+
+		leer(canal, posicion, b);
+		return b.flip();
+	}
+
+	static void leer(FileChannel canal, long posicion, ByteBuffer destino) throws IOException {
+		int leidos;
+
+		while (destino.hasRemaining()) {
+			leidos = canal.read(destino, posicion);
+			if (leidos < 0) {
+				throw new EOFException("El contenedor termina antes de lo esperado");
+			}
+			posicion += leidos;
+		}
+	}
+
+	static void escribir(FileChannel canal, long posicion, ByteBuffer origen) throws IOException {
+		while (origen.hasRemaining()) {
+			posicion += canal.write(origen, posicion);
+		}
+	}
+
+	/*
+	 * Contenido leido de un contenedor: la cabecera, el indice y donde empieza y termina el indice (despues se agregan chunks nuevos).
+	 * Valida la magia, la version y que el indice sea coherente con el archivo.
+	 */
+	static final class Contenido {
+		int rondas;
+		int tamChunk;
+		byte[] nonce = new byte[TAM_NONCE];
+		byte[] verificacion = new byte[TAM_VERIFICACION];
+		long posIndice;
+		int chunks;
+		long[] offsets;
+		long[] posiciones;
+		int[] largos;
+
+		// Largo total del texto plano
+		long tamanio() {
+			return chunks == 0 ? 0 : offsets[chunks - 1] + largos[chunks - 1];
+		}
+
+		// Posicion siguiente al final del indice
+		long finIndice() {
+			return posIndice + TAM_CABECERA_INDICE + (long) chunks * TAM_ENTRADA;
+		}
+
+		static Contenido leer(FileChannel canal) throws IOException {
+			Contenido c = new Contenido();
+			long tamArchivo = canal.size();
+
+			if (tamArchivo < TAM_CABECERA) {
+				throw new IOException("El archivo es demasiado chico para ser un contenedor Salsa20");
+			}
+
+			ByteBuffer cabecera = ContainerFormat.leer(canal, 0, TAM_CABECERA);
+			if (cabecera.getInt() != MAGIA_CABECERA) {
+				throw new IOException("El archivo no es un contenedor Salsa20");
+			}
+			int version = cabecera.get();
+			if (version != VERSION) {
+				throw new IOException("Version de contenedor no soportada: " + version);
+			}
+			c.rondas = cabecera.get();
+			cabecera.getShort();
+			c.tamChunk = cabecera.getInt();
+			cabecera.get(c.nonce);
+			cabecera.get(c.verificacion);
+			cabecera.getInt();
+			c.posIndice = cabecera.getLong();
+			if (c.rondas != 8 && c.rondas != 12 && c.rondas != 20) {
+				throw new IOException("Cantidad de rondas invalida en la cabecera del contenedor: " + c.rondas);
+			}
+			if (c.tamChunk <= 0 || c.tamChunk % Salsa20.TAM_BLOQUE != 0) {
+				throw new IOException("Tamaño de chunk invalido en la cabecera del contenedor: " + c.tamChunk);
+			}
+			if (c.posIndice == 0) {
+				throw new IOException("El contenedor no tiene indice: no se cerro nunca");
+			}
+
+			ByteBuffer cabeceraIndice = c.posIndice < TAM_CABECERA || c.posIndice > tamArchivo - TAM_CABECERA_INDICE ? null
+					: ContainerFormat.leer(canal, c.posIndice, TAM_CABECERA_INDICE);
+			if (cabeceraIndice != null) {
+				c.chunks = cabeceraIndice.getInt();
+			}
+			if (cabeceraIndice == null || cabeceraIndice.getInt() != MAGIA_INDICE || c.chunks < 0 || c.finIndice() > tamArchivo) {
+				throw new IOException("El indice del contenedor esta dañado");
+			}
+
+			c.offsets = new long[Math.max(c.chunks, 16)];
+			c.posiciones = new long[c.offsets.length];
+			c.largos = new int[c.offsets.length];
+
+			ByteBuffer indice = ContainerFormat.leer(canal, c.posIndice + TAM_CABECERA_INDICE, c.chunks * TAM_ENTRADA);
+			for (int i = 0; i < c.chunks; i++) {
+				c.offsets[i] = indice.getLong();
+				c.posiciones[i] = indice.getLong();
+				c.largos[i] = indice.getInt();
+				// El escritor nunca genera chunks vacios: uno de largo 0 haria que la busqueda por offset caiga en el y no avance
+				if (c.largos[i] <= 0 || c.largos[i] > c.tamChunk || c.posiciones[i] < TAM_CABECERA
+						|| c.posiciones[i] + c.largos[i] > c.posIndice
+						|| c.offsets[i] != (i == 0 ? 0 : c.offsets[i - 1] + c.largos[i - 1])) {
+					throw new IOException("Entrada " + i + " del indice del contenedor invalida");
+				}
+			}
+			return c;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package salsa20;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/*
+ * Lee un contenedor cifrado (ver ContainerFormat). El indice se carga al abrir y cada chunk se descifra por separado, posicionando
+ * el cifrador en el offset del chunk, sin leer ni descifrar los anteriores. Todas las lecturas usan posiciones absolutas sobre el canal
+ * y el cifrador de cada hilo, asi que se pueden leer chunks distintos desde varios hilos a la vez.
+ */
+public class ContainerReader implements Closeable {
+
+	private final FileChannel canal;
+	private final ContainerFormat.Contenido contenido;
+	private final Salsa20Key key;
+
+	private ContainerReader(FileChannel canal, ContainerFormat.Contenido contenido, Salsa20Key key) {
+		this.canal = canal;
+		this.contenido = contenido;
+		this.key = key;
+	}
+
+	// Abre el contenedor con la key de 32 bytes, que se verifica contra la cabecera. Las rondas y el nonce se leen de la cabecera
+	public static ContainerReader abrir(Path archivo, byte[] key) throws IOException {
+		FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ);
+		try {
+			ContainerFormat.Contenido contenido = ContainerFormat.Contenido.leer(canal);
+			Salsa20Key salsaKey = new Salsa20Key(key, contenido.rondas);
+
+			ContainerFormat.verificarKey(contenido, salsaKey);
+			return new ContainerReader(canal, contenido, salsaKey);
+		} catch (IOException | RuntimeException e) {
+			canal.close();
+			throw e;
+		}
+	}
+
+	// Largo total del texto plano
+	public long size() {
+		return contenido.tamanio();
+	}
+
+	public int chunks() {
+		return contenido.chunks;
+	}
+
+	public int rondas() {
+		return contenido.rondas;
+	}
+
+	// Offset en el texto plano donde empieza el chunk
+	public long offsetChunk(int chunk) {
+		verificarChunk(chunk);
+		return contenido.offsets[chunk];
+	}
+
+	public int largoChunk(int chunk) {
+		verificarChunk(chunk);
+		return contenido.largos[chunk];
+	}
+
+	// Chunk que contiene el byte offset del texto plano (busqueda binaria en el indice)
+	public int chunkEn(long offset) {
+		if (offset < 0 || offset >= size()) {
+			throw new IndexOutOfBoundsException("Offset fuera del contenedor: " + offset);
+		}
+
+		int i = Arrays.binarySearch(contenido.offsets, 0, contenido.chunks, offset);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	// Descifra el chunk y lo escribe en destino a partir de off. Devuelve el largo del chunk
+	public int leerChunk(int chunk, byte[] destino, int off) throws IOException {
+		verificarChunk(chunk);
+
+		int largo = contenido.largos[chunk];
+		ContainerFormat.leer(canal, contenido.posiciones[chunk], ByteBuffer.wrap(destino, off, largo));
+		key.encryptAt(contenido.nonce, contenido.offsets[chunk], destino, off, largo, destino, off);
+		return largo;
+	}
+
+	/*
+	 * Descifra length bytes del texto plano a partir de offset, leyendo solo los chunks que cubren ese rango. Como el keystream depende
+	 * solo de la posicion en el texto plano, el rango se puede descifrar aunque empiece o termine en medio de un chunk.
+	 */
+	public byte[] leer(long offset, int length) throws IOException {
+		if (length < 0 || offset < 0 || offset > size() - length) {
+			throw new IndexOutOfBoundsException("Rango fuera del contenedor");
+		}
+
+		byte[] resultado = new byte[length];
+		int hecho = 0;
+		int chunk, desde, cantidad;
+		long pos;
+
+		while (hecho < length) {
+			pos = offset + hecho;
+			chunk = chunkEn(pos);
+			desde = (int) (pos - contenido.offsets[chunk]);
+			cantidad = Math.min(length - hecho, contenido.largos[chunk] - desde);
+			if (cantidad <= 0) {
+				throw new IOException("El indice del contenedor esta dañado en el chunk " + chunk);
+			}
+
+			ContainerFormat.leer(canal, contenido.posiciones[chunk] + desde, ByteBuffer.wrap(resultado, hecho, cantidad));
+			hecho += cantidad;
+		}
+		key.encryptAt(contenido.nonce, offset, resultado, 0, length, resultado, 0);
+		return resultado;
+	}
+
+	// Descifra todo el contenedor en destino (que se crea o se pisa), repartiendo los chunks entre los hilos del pool comun
+	public void descifrarTodo(Path destino) throws IOException {
+		descifrarTodo(destino, ForkJoinPool.commonPool());
+	}
+
+	public void descifrarTodo(Path destino, ForkJoinPool pool) throws IOException {
+		try (FileChannel salida = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			// Cada chunk se lee, se descifra y se escribe en su offset de forma independiente
+			pool.submit(() -> IntStream.range(0, contenido.chunks).parallel().forEach(chunk -> {
+				byte[] buffer = new byte[contenido.largos[chunk]];
+				try {
+					leerChunk(chunk, buffer, 0);
+					ContainerFormat.escribir(salida, contenido.offsets[chunk], ByteBuffer.wrap(buffer));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Se interrumpio el descifrado del contenedor", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		canal.close();
+	}
+
+	private void verificarChunk(int chunk) {
+		if (chunk < 0 || chunk >= contenido.chunks) {
+			throw new IndexOutOfBoundsException("Chunk inexistente: " + chunk);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package salsa20;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/*
+ * Escribe un contenedor cifrado (ver ContainerFormat) a medida que llegan los datos: lo que se escribe se junta hasta completar un chunk,
+ * que se cifra y se agrega al archivo. close escribe el ultimo chunk y el indice, y recien entonces apunta la cabecera al indice.
+ * Un contenedor ya cerrado se puede reabrir con agregar para seguir escribiendo al final: hasta el close el indice anterior sigue
+ * siendo el valido, asi que si el proceso muere o falla en el medio el contenedor conserva todo lo que tenia.
+ * No es thread-safe.
+ */
+public class ContainerWriter extends OutputStream {
+
+	private final FileChannel canal;
+	private final Salsa20Cipher cifrador;
+	private final ByteBuffer chunk;
+
+	// Indice en memoria: offset en el texto plano, posicion en el archivo y largo de cada chunk
+	private long[] offsets;
+	private long[] posiciones;
+	private int[] largos;
+	private int chunks;
+
+	// Offset en el texto plano y posicion en el archivo del proximo chunk
+	private long offsetActual;
+	private long posicionActual;
+
+	private boolean cerrado;
+
+	private ContainerWriter(FileChannel canal, Salsa20Key key, byte[] nonce, int tamChunk, ContainerFormat.Contenido previo) {
+		this.canal = canal;
+		this.cifrador = key.newCipher(nonce);
+		this.chunk = ByteBuffer.allocateDirect(tamChunk);
+
+		if (previo == null) {
+			offsets = new long[16];
+			posiciones = new long[16];
+			largos = new int[16];
+			posicionActual = ContainerFormat.TAM_CABECERA;
+		} else {
+			offsets = previo.offsets;
+			posiciones = previo.posiciones;
+			largos = previo.largos;
+			chunks = previo.chunks;
+			offsetActual = previo.tamanio();
+			posicionActual = previo.finIndice();
+			cifrador.seek(offsetActual);
+		}
+	}
+
+	// Crea (o pisa) un contenedor con un nonce al azar y el tamaño de chunk por defecto (1 MB). Las rondas son las de la key
+	public static ContainerWriter crear(Path destino, Salsa20Key key) throws IOException {
+		byte[] nonce = new byte[ContainerFormat.TAM_NONCE];
+		new SecureRandom().nextBytes(nonce);
+		return crear(destino, key, nonce, ContainerFormat.TAM_CHUNK_POR_DEFECTO);
+	}
+
+	// El tamaño de chunk debe ser un multiplo de 64 para que cada chunk completo empiece en un bloque entero del keystream
+	public static ContainerWriter crear(Path destino, Salsa20Key key, byte[] nonce, int tamChunk) throws IOException {
+		if (tamChunk <= 0 || tamChunk % Salsa20.TAM_BLOQUE != 0) {
+			throw new IllegalArgumentException("El tamaño de chunk debe ser un multiplo positivo de " + Salsa20.TAM_BLOQUE);
+		}
+		if (nonce == null || nonce.length != ContainerFormat.TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + ContainerFormat.TAM_NONCE + " bytes");
+		}
+
+		FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ContainerFormat.escribir(canal, 0, ContainerFormat.cabecera(key, tamChunk, nonce));
+			return new ContainerWriter(canal, key, nonce, tamChunk, null);
+		} catch (IOException | RuntimeException e) {
+			canal.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Reabre un contenedor cerrado para agregar datos al final. El cifrador sigue el mismo flujo de keystream desde el final del texto plano,
+	 * asi que no se repite keystream. La key es la del contenedor (si no coincide con la verificacion de la cabecera falla);
+	 * las rondas y el nonce se leen de la cabecera. Los chunks nuevos se escriben despues del indice actual, que no se modifica.
+	 */
+	public static ContainerWriter agregar(Path archivo, byte[] key) throws IOException {
+		FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			ContainerFormat.Contenido previo = ContainerFormat.Contenido.leer(canal);
+			Salsa20Key salsaKey = new Salsa20Key(key, previo.rondas);
+
+			ContainerFormat.verificarKey(previo, salsaKey);
+			return new ContainerWriter(canal, salsaKey, previo.nonce, previo.tamChunk, previo);
+		} catch (IOException | RuntimeException e) {
+			canal.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		verificarAbierto();
+		chunk.put((byte) b);
+		if (!chunk.hasRemaining()) {
+			escribirChunk();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		verificarAbierto();
+		if (len < 0 || off < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException("Rango invalido");
+		}
+
+		int cantidad;
+		while (len > 0) {
+			cantidad = Math.min(len, chunk.remaining());
+			chunk.put(b, off, cantidad);
+			off += cantidad;
+			len -= cantidad;
+			if (!chunk.hasRemaining()) {
+				escribirChunk();
+			}
+		}
+	}
+
+	// Escribe los datos pendientes como un chunk (mas corto que el tamaño de chunk). El indice se escribe recien al cerrar
+	@Override
+	public void flush() throws IOException {
+		verificarAbierto();
+		if (chunk.position() > 0) {
+			escribirChunk();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (cerrado) {
+			return;
+		}
+
+		try {
+			flush();
+			escribirIndice();
+		} finally {
+			cerrado = true;
+			canal.close();
+		}
+	}
+
+	// Cantidad de bytes de texto plano escritos hasta ahora (incluidos los pendientes)
+	public long size() {
+		return offsetActual + chunk.position();
+	}
+
+	// Cifra el chunk en el lugar, lo agrega al archivo y lo anota en el indice
+	private void escribirChunk() throws IOException {
+		int largo = chunk.position();
+
+		chunk.flip();
+		cifrador.update(chunk, chunk.duplicate());
+		chunk.flip();
+		ContainerFormat.escribir(canal, posicionActual, chunk);
+		chunk.clear();
+
+		if (chunks == largos.length) {
+			offsets = Arrays.copyOf(offsets, chunks * 2);
+			posiciones = Arrays.copyOf(posiciones, chunks * 2);
+			largos = Arrays.copyOf(largos, chunks * 2);
+		}
+		offsets[chunks] = offsetActual;
+		posiciones[chunks] = posicionActual;
+		largos[chunks] = largo;
+		chunks++;
+
+		offsetActual += largo;
+		posicionActual += largo;
+	}
+
+	/*
+	 * Escribe el indice despues del ultimo chunk y lo baja a disco antes de apuntarle desde la cabecera: hasta ese momento la cabecera
+	 * sigue apuntando al indice anterior (o a ninguno). Al final se recorta lo que haya quedado despues, por ejemplo de un agregar que no cerro.
+	 */
+	private void escribirIndice() throws IOException {
+		ByteBuffer indice = ByteBuffer.allocate(ContainerFormat.TAM_CABECERA_INDICE + chunks * ContainerFormat.TAM_ENTRADA)
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		indice.put(ContainerFormat.cabeceraIndice(chunks));
+		for (int i = 0; i < chunks; i++) {
+			indice.putLong(offsets[i]).putLong(posiciones[i]).putInt(largos[i]);
+		}
+		indice.flip();
+		ContainerFormat.escribir(canal, posicionActual, indice);
+		canal.force(false);
+
+		ContainerFormat.escribir(canal, ContainerFormat.POS_PUNTERO_INDICE, ContainerFormat.punteroIndice(posicionActual));
+		canal.force(false);
+		canal.truncate(posicionActual + indice.limit());
+	}
+
+	private void verificarAbierto() throws IOException {
+		if (cerrado) {
+			throw new IOException("El contenedor ya fue cerrado");
+		}
+	}
+}
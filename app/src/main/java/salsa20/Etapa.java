@@ -0,0 +1,19 @@
+package salsa20;
+
+// Etapas de una operacion que se miden por separado (ver Metricas)
+public enum Etapa {
+	// Lectura y decodificacion de la imagen de origen (ImageIO o PngStripReader)
+	DECODIFICAR,
+	// Paso de la imagen decodificada a bytes (4 por pixel)
+	CONVERTIR,
+	// Carga de la key en la matriz de estado (y derivacion de subkeys de XSalsa20)
+	CARGAR_KEY,
+	// Calculo de los bloques de keystream en el motor
+	KEYSTREAM,
+	// XOR del keystream con los datos
+	XOR,
+	// Codificacion y escritura de la imagen de salida
+	CODIFICAR,
+	// Operacion completa de la interfaz o de BatchCli sobre un archivo
+	OPERACION
+}
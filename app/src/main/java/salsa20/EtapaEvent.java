@@ -0,0 +1,32 @@
+package salsa20;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * Evento de Flight Recorder con la medicion de una etapa. La duracion ya viene medida por Metricas, asi que va en un campo y no
+ * en el begin/end del evento. Sin stack trace, para que grabarlo sea barato. Se ve en JDK Mission Control bajo "Salsa20".
+ */
+@Name("salsa20.Etapa")
+@Label("Etapa de Salsa20")
+@Description("Duracion y bytes de una etapa de cifrado o de manejo de imagenes")
+@Category("Salsa20")
+@StackTrace(false)
+final class EtapaEvent extends jdk.jfr.Event {
+
+	@Label("Etapa")
+	String etapa;
+
+	@Label("Duracion")
+	@Timespan(Timespan.NANOSECONDS)
+	long duracion;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
@@ -0,0 +1,49 @@
+package salsa20;
+
+/*
+ * Formato del archivo de imagen que se genera al cifrar o descifrar. Como los pixeles cifrados son practicamente aleatorios,
+ * comprimirlos gasta CPU y no ahorra espacio: para el criptograma conviene PNG sin compresion (nivel 0) o uno de los formatos
+ * sin comprimir, que se escriben y se leen fila por fila casi al costo de copiar los bytes.
+ *   PNG  RGBA de 8 bits, con el nivel de deflate elegido (0 es solo almacenar)
+ *   BMP  32 bits por pixel (B, G, R, A) de arriba hacia abajo, sin compresion, con BITMAPV4HEADER y mascara de alfa
+ *   PAM  Netpbm P7 con TUPLTYPE RGB_ALPHA, sin compresion
+ * Los tres guardan el canal alfa, asi que el criptograma se descifra sin perder nada.
+ */
+public enum FormatoImagen {
+	PNG("png"),
+	BMP("bmp"),
+	PAM("pam");
+
+	private final String extension;
+
+	FormatoImagen(String extension) {
+		this.extension = extension;
+	}
+
+	// Extension de archivo, sin el punto
+	public String extension() {
+		return extension;
+	}
+
+	// Formato por nombre o extension (png, bmp o pam, sin importar mayusculas)
+	public static FormatoImagen deNombre(String nombre) {
+		for (FormatoImagen formato : values()) {
+			if (formato.extension.equalsIgnoreCase(nombre)) {
+				return formato;
+			}
+		}
+		throw new IllegalArgumentException("Formato de imagen no soportado: " + nombre);
+	}
+
+	// Si el archivo tiene la extension de alguno de los formatos que se pueden leer por franjas
+	static boolean esImagenSoportada(String nombreArchivo) {
+		String nombre = nombreArchivo.toLowerCase();
+
+		for (FormatoImagen formato : values()) {
+			if (nombre.endsWith("." + formato.extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,96 @@
+package salsa20;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Histograma de latencias con cubetas en potencias de 2: la cubeta i cuenta las mediciones entre 2^(i-1) y 2^i - 1 nanosegundos.
+ * Registrar no reserva memoria ni toma locks, y se puede hacer desde muchos hilos a la vez. Los percentiles son aproximados
+ * (el limite superior de la cubeta, como mucho el doble del valor real).
+ */
+public final class Histograma {
+
+	private static final int CUBETAS = 64;
+
+	private final LongAdder[] cubetas = new LongAdder[CUBETAS];
+	private final LongAdder cantidad = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAdder totalBytes = new LongAdder();
+	private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+	Histograma() {
+		for (int i = 0; i < CUBETAS; i++) {
+			cubetas[i] = new LongAdder();
+		}
+	}
+
+	void registrar(long nanos, long bytes) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		cubetas[Math.min(CUBETAS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+		cantidad.increment();
+		totalNanos.add(nanos);
+		totalBytes.add(bytes);
+		maximo.accumulate(nanos);
+	}
+
+	public long cantidad() {
+		return cantidad.sum();
+	}
+
+	public long totalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long totalBytes() {
+		return totalBytes.sum();
+	}
+
+	public long maximoNanos() {
+		return maximo.get();
+	}
+
+	public long promedioNanos() {
+		long n = cantidad();
+		return n == 0 ? 0 : totalNanos() / n;
+	}
+
+	// Valor por debajo del cual queda la fraccion p (entre 0 y 1) de las mediciones
+	public long percentilNanos(double p) {
+		if (p < 0 || p > 1) {
+			throw new IllegalArgumentException("El percentil debe estar entre 0 y 1");
+		}
+
+		long n = cantidad();
+		long objetivo = (long) Math.ceil(p * n);
+		long acumulado = 0;
+
+		if (n == 0) {
+			return 0;
+		}
+		for (int i = 0; i < CUBETAS; i++) {
+			acumulado += cubetas[i].sum();
+			if (acumulado >= objetivo && acumulado > 0) {
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, maximoNanos());
+			}
+		}
+		return maximoNanos();
+	}
+
+	// MB/s de la etapa: bytes procesados sobre el tiempo total medido
+	public double megabytesPorSegundo() {
+		long nanos = totalNanos();
+		return nanos == 0 ? 0 : totalBytes() * 1e3 / nanos;
+	}
+
+	void reiniciar() {
+		for (LongAdder cubeta : cubetas) {
+			cubeta.reset();
+		}
+		cantidad.reset();
+		totalNanos.reset();
+		totalBytes.reset();
+		maximo.reset();
+	}
+}
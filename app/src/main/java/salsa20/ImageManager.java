@@ -1,82 +1,219 @@
 package salsa20;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 
 // Clase que contiene metodos para gestionar la imagen
 public class ImageManager {
 
-	// Lee una imagen y la retorna en la variable bf
+	// Vista para leer y escribir los pixeles ARGB como enteros big-endian dentro del array de bytes (A, R, G, B)
+	private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+	// Bytes que se leen de una vez de una imagen sin comprimir
+	private static final int TAM_FRANJA = 1024 * 1024;
+
+	// Lee una imagen y la retorna en la variable bf. Los BMP de 32 bits y PAM sin comprimir (ver FormatoImagen) se leen sin ImageIO
 	public BufferedImage leerImagen(String path) throws IOException {
 		BufferedImage bf;
+		long inicio = Metricas.inicio();
+
+		try (RawStripReader raw = RawStripReader.abrir(Paths.get(path))) {
+			bf = raw != null ? leerSinComprimir(raw) : ImageIO.read(new File(path));
+		}
+		Metricas.registrar(Etapa.DECODIFICAR, inicio, bf == null ? 0 : (long) bf.getWidth() * bf.getHeight() * 4);
+		return bf;
+	}
 
-		bf = ImageIO.read(new File(path));
+	// Pasa las filas del lector a una imagen TYPE_INT_ARGB, de a franjas para no tener los bytes de toda la imagen a la vez
+	private BufferedImage leerSinComprimir(RawStripReader raw) throws IOException {
+		int ancho = raw.ancho();
+		int alto = raw.alto();
+		BufferedImage bf = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_ARGB);
+		int[] pixelsInt = ((DataBufferInt) bf.getRaster().getDataBuffer()).getData();
+		int filasPorFranja = Math.max(1, Math.min(alto, TAM_FRANJA / (ancho * 4)));
+		byte[] franja = new byte[filasPorFranja * ancho * 4];
+		int filas, base;
+
+		for (int y = 0; y < alto; y += filas) {
+			filas = Math.min(filasPorFranja, alto - y);
+			raw.leerFilas(franja, 0, filas);
+			base = y * ancho;
+			for (int i = 0; i < filas * ancho; i++) {
+				pixelsInt[base + i] = (int) INT_BE.get(franja, i * 4);
+			}
+		}
 		return bf;
 	}
 
-	// Toma una imagen y la convierte en un array de bytes para procesarlo
+	/*
+	 * Toma una imagen y la convierte en un array de bytes para procesarlo: 4 bytes por pixel (A, R, G, B), fila por fila.
+	 * Para los formatos mas comunes (TYPE_INT_ARGB, TYPE_INT_RGB, TYPE_3BYTE_BGR y TYPE_4BYTE_ABGR) se lee directamente el DataBuffer
+	 * del raster, sin conversion de modelo de color. Para el resto se usa getRGB de una sola vez para toda la imagen.
+	 */
 	public byte[] convertirBytes(BufferedImage bf) {
 		int alto, ancho;
 		byte[] pixelsByte;
-		int [] pixelsInt;
+		WritableRaster raster = bf.getRaster();
+		long inicio = Metricas.inicio();
 
-		// Armar el array de enteros con el tamaño necesario para almacenar la iamgen
+		// Armar el array de bytes con el tamaño necesario para almacenar la imagen
 		alto = bf.getHeight();
 		ancho = bf.getWidth();
-		pixelsInt = new int[alto * ancho];
+		pixelsByte = new byte[alto * ancho * 4];
 
-		// Recorremos toda la imagen guardando los pixeles
-		for (int i = 0; i < alto; i++) {
-			for (int j = 0; j < ancho; j++) {
-				pixelsInt[i * ancho + j] = bf.getRGB(j, i);
+		switch (bf.getType()) {
+		case BufferedImage.TYPE_INT_ARGB:
+		case BufferedImage.TYPE_INT_RGB:
+			leerPixelsInt(raster, bf.getType() == BufferedImage.TYPE_INT_ARGB, pixelsByte);
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+		case BufferedImage.TYPE_4BYTE_ABGR:
+			leerPixelsByte(raster, pixelsByte);
+			break;
+		default:
+			// Cualquier otro formato pasa por el modelo de color, pero en una sola llamada
+			int[] pixelsInt = bf.getRGB(0, 0, ancho, alto, null, 0, ancho);
+			for (int i = 0; i < pixelsInt.length; i++) {
+				INT_BE.set(pixelsByte, i * 4, pixelsInt[i]);
 			}
 		}
-		
-		// Pasar el array de enteros a un array de bytes
-		ByteBuffer byteBf = ByteBuffer.allocate(pixelsInt.length * 4);
-		IntBuffer intBf = byteBf.asIntBuffer();
-		intBf.put(pixelsInt);
-		pixelsByte = byteBf.array();
-	
+
+		Metricas.registrar(Etapa.CONVERTIR, inicio, pixelsByte.length);
 		return pixelsByte;
 	}
-	
-	// Obtiene 4 bytes de un array a partir de una posicion de inicio
-	private byte[] obtener4Bytes(byte[] pixels, int inicio) {
-		byte[] resultado = new byte[4];
-		
-		// Recorremos la entrada y vamos copiando
-		for(int i = 0; i < 4; i++) {
-			resultado[i] = pixels[inicio + i];
+
+	// Copia los pixeles de un raster de enteros empaquetados. Si la imagen no tiene alfa, se completa con 0xFF como hace getRGB
+	private void leerPixelsInt(WritableRaster raster, boolean conAlfa, byte[] pixelsByte) {
+		SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+		int[] datos = db.getData();
+		int ancho = raster.getWidth();
+		int alto = raster.getHeight();
+		int stride = sm.getScanlineStride();
+		int inicio = db.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+		int alfa = conAlfa ? 0 : 0xff000000;
+		int fila, i, j = 0;
+
+		for (int y = 0; y < alto; y++) {
+			fila = inicio + y * stride;
+			for (i = 0; i < ancho; i++) {
+				INT_BE.set(pixelsByte, j, datos[fila + i] | alfa);
+				j += 4;
+			}
 		}
+	}
 
-		return resultado;
+	/*
+	 * Copia los pixeles de un raster de bytes intercalados (3 o 4 bytes por pixel). Los offsets de cada banda (R, G, B y A)
+	 * salen del SampleModel, asi sirve tanto para BGR como para ABGR.
+	 */
+	private void leerPixelsByte(WritableRaster raster, byte[] pixelsByte) {
+		ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+		DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+		byte[] datos = db.getData();
+		int ancho = raster.getWidth();
+		int alto = raster.getHeight();
+		int stride = sm.getScanlineStride();
+		int paso = sm.getPixelStride();
+		int[] bandas = sm.getBandOffsets();
+		boolean conAlfa = bandas.length == 4;
+		int inicio = db.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * paso;
+		int p, j = 0;
+
+		for (int y = 0; y < alto; y++) {
+			p = inicio + y * stride;
+			for (int i = 0; i < ancho; i++) {
+				pixelsByte[j] = conAlfa ? datos[p + bandas[3]] : (byte) 0xff;
+				pixelsByte[j + 1] = datos[p + bandas[0]];
+				pixelsByte[j + 2] = datos[p + bandas[1]];
+				pixelsByte[j + 3] = datos[p + bandas[2]];
+				p += paso;
+				j += 4;
+			}
+		}
 	}
 
 	// Genera una imagen a partir de una altura y anchura, su correspondiente array de bytes y un string indicando el path para guardar el archivo
 	public void escribirImagen(byte[] pixelsByte, int width, int height, String path) throws IOException {
-		// Inicializamos las variables a usar
+		escribirImagen(pixelsByte, width, height, path, FormatoImagen.PNG, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/*
+	 * Igual que el anterior en el formato indicado. En PNG el nivel de compresion (0, solo almacenar, a 9, o -1 para el por defecto
+	 * del ImageWriter) se pasa por ImageWriteParam; BMP y PAM se escriben sin comprimir con RawStripWriter, fila por fila.
+	 */
+	public void escribirImagen(byte[] pixelsByte, int width, int height, String path, FormatoImagen formato, int nivelCompresion)
+			throws IOException {
+		if (nivelCompresion < Deflater.DEFAULT_COMPRESSION || nivelCompresion > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("El nivel de compresion debe estar entre -1 y 9");
+		}
+
+		long inicio = Metricas.inicio();
+
+		if (formato != FormatoImagen.PNG) {
+			try (OutputStream salida = new BufferedOutputStream(new FileOutputStream(path))) {
+				StripWriter escritor = new RawStripWriter(salida, width, height, formato);
+				escritor.escribirFilas(pixelsByte, 0, height);
+				escritor.terminar();
+			}
+			Metricas.registrar(Etapa.CODIFICAR, inicio, pixelsByte.length);
+			return;
+		}
+
+		// Inicializamos la imagen y escribimos los pixeles directamente en su DataBuffer (una imagen nueva no tiene offset ni padding)
 		BufferedImage bf = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-		int[] pixelsInt = new int[pixelsByte.length / 4];
+		int[] pixelsInt = ((DataBufferInt) bf.getRaster().getDataBuffer()).getData();
 		int len = pixelsInt.length;
-		
-		// Necesitamos pasar el array de bytes a uno de enteros
-		for(int i = 0; i < len; i++) {
-			pixelsInt[i] = ByteBuffer.wrap(obtener4Bytes(pixelsByte, i * 4)).getInt();
+
+		// Cada grupo de 4 bytes (A, R, G, B) es un pixel
+		for (int i = 0; i < len; i++) {
+			pixelsInt[i] = (int) INT_BE.get(pixelsByte, i * 4);
 		}
-		
-		// Vamos generando los pixeles para la nueva imagen y luego generamos la imagen resultado
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
+		if (nivelCompresion == Deflater.DEFAULT_COMPRESSION) {
+			ImageIO.write(bf, "png", new File(path));
+		} else {
+			escribirPng(bf, path, nivelCompresion);
+		}
+		Metricas.registrar(Etapa.CODIFICAR, inicio, pixelsByte.length);
+	}
 
-				bf.setRGB(j, i, pixelsInt[i * width + j]);
-			}
+	/*
+	 * PNG con el nivel de deflate indicado. El ImageWriter de PNG del JDK usa como nivel 9 * (1 - calidad) truncado,
+	 * asi que se pide la calidad del centro del intervalo de cada nivel.
+	 */
+	private void escribirPng(BufferedImage bf, String path, int nivelCompresion) throws IOException {
+		ImageWriter escritor = ImageIO.getImageWritersByFormatName("png").next();
+		ImageWriteParam param = escritor.getDefaultWriteParam();
+
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(Math.max(0f, 1f - (nivelCompresion + 0.5f) / 9f));
+
+		new File(path).delete();
+		try (ImageOutputStream salida = ImageIO.createImageOutputStream(new File(path))) {
+			escritor.setOutput(salida);
+			escritor.write(null, new IIOImage(bf, null, null), param);
+		} finally {
+			escritor.dispose();
 		}
-		ImageIO.write(bf, "png", new File(path));
 	}
-}
\ No newline at end of file
+}
@@ -6,9 +6,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
-import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
@@ -16,6 +24,8 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
 import java.awt.Color;
 import javax.swing.JTextField;
 import javax.swing.UIManager;
@@ -26,10 +36,23 @@ public class Interface extends JFrame {
 	private static final long serialVersionUID = 1L;
 	
 	private File file;
-	private Salsa20 salsita;
-	private ImageManager imgManager;
+	private TiledImageCipher cifradorImagenes;
 
-	// Constantes en orden: fuentes, modos de operacion, path para cifrar y descifrar, mensajes de error y de exito, y al final constantes de titulos.
+	// Para el criptograma: PNG sin compresion, porque los pixeles cifrados no se pueden comprimir y deflate solo gastaria CPU
+	private TiledImageCipher cifradorCriptogramas;
+
+	/*
+	 * Las operaciones se ejecutan de a una en este hilo, fuera del Event Dispatch Thread, para que la ventana no se congele.
+	 * Si se piden varias se encolan y se ejecutan en orden.
+	 */
+	private ExecutorService colaOperaciones;
+	private OperacionWorker operacionActual;
+	private int operacionesPendientes;
+
+	// Salidas de las operaciones en cola o en curso, para no encolar dos que escriban el mismo archivo
+	private final Set<Path> salidasPendientes = new HashSet<>();
+
+	// Constantes en orden: fuentes, modos de operacion, mensajes de error y de exito, y al final constantes de titulos.
 	private static final Font FONT_TITULOS = new Font("Arial", Font.BOLD, 20);
 	private static final Font FONT_SUBTITULOS = new Font("Arial", Font.BOLD, 18);
 	private static final Font FONT_CAMPOS = new Font("Arial", Font.PLAIN, 16);
@@ -37,16 +60,16 @@ public class Interface extends JFrame {
 	private static final int OPERACION_CIFRAR = 1;
 	private static final int OPERACION_DESCIFRAR = 2;
 
-	private static final String PATH_CIFRADO_OUT = "./cifrado.png";
-	private static final String PATH_DESCIFRADO_OUT = "./descifrado.png";
-	
 	private static final String MSJ_ERROR_KEY_VACIA = "Ingrese un numero como key";
 	private static final String MSJ_ERROR_KEY_NO_NUMERICA = "La key debe ser un valor numerico";
 	private static final String MSJ_ERROR_KEY_LONGITUD = "La key debe tener una longitud de 32 caracteres";
 	private static final String MSJ_ERROR_FILE_NO_SELECCIONADO = "Seleccione un archivo a encriptar";
 	private static final String MSJ_ERROR_NO_SE_PUDO_ABRIR_FILE = "No se logro a acceder a ";
-	private static final String MSJ_ERROR_FILE_NO_PNG = "Solo se pueden usar archivos PNG";
+	private static final String MSJ_ERROR_FILE_NO_PNG = "Solo se pueden usar archivos PNG, BMP o PAM";
 	private static final String MSJ_EXITO_OPERACION_REALIZADA = "Operacion realizada!";
+	private static final String MSJ_OPERACION_CANCELADA = "Operacion cancelada";
+	private static final String MSJ_ERROR_SALIDA_EN_COLA = "Ya hay una operacion en cola que genera ";
+	private static final String MSJ_SIN_OPERACIONES = "Sin operaciones en curso";
 	private static final String MSJ_CONFIRNAR_CERRAR_VENTANA = "Deseas cerrar la ventana?";
 	
 	private static final String TITULO_ERROR = "Error!";
@@ -58,6 +81,9 @@ public class Interface extends JFrame {
 	private JPanel contentPane;
 	private JTextField txtKey;
 	private JTextField txtNombre;
+	private JProgressBar barraProgreso;
+	private JButton btnCancelar;
+	private JLabel lblEstado;
 
 	// Iniciar la aplicación
 	public static void main(String[] args) {
@@ -91,7 +117,7 @@ public class Interface extends JFrame {
 
 		// Definimos no realizar acciones al cierre, el tamaño que sea inmodificable y un titulo
 		setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-		setSize(508, 440);
+		setSize(508, 520);
 		setResizable(false);
 		setTitle(TITULO_APLICACION);
 
@@ -101,9 +127,14 @@ public class Interface extends JFrame {
 		contentPane.setLayout(null);
 		setContentPane(contentPane);
 
-		// Iniciar el cifrador el flujo y el manager de imagenes
-		salsita = new Salsa20();
-		imgManager = new ImageManager();
+		// Iniciar el cifrador de imagenes y la cola de operaciones (con un hilo daemon, para no impedir que termine la aplicacion)
+		cifradorImagenes = new TiledImageCipher();
+		cifradorCriptogramas = new TiledImageCipher(TiledImageCipher.FILAS_POR_FRANJA_POR_DEFECTO, FormatoImagen.PNG, 0);
+		colaOperaciones = Executors.newSingleThreadExecutor(r -> {
+			Thread hilo = new Thread(r, "salsa20-operaciones");
+			hilo.setDaemon(true);
+			return hilo;
+		});
 
 		// De aca en adelante son elementos que se agregan al layout
 		JLabel lblTitulo = new JLabel();
@@ -155,6 +186,20 @@ public class Interface extends JFrame {
 		btnDescifrar.setBounds(241, 329, 216, 45);
 		contentPane.add(btnDescifrar);
 
+		barraProgreso = new JProgressBar(0, 100);
+		barraProgreso.setStringPainted(true);
+		barraProgreso.setBounds(10, 390, 330, 35);
+		contentPane.add(barraProgreso);
+
+		btnCancelar = new JButton("Cancelar");
+		btnCancelar.setFont(FONT_CAMPOS);
+		btnCancelar.setBounds(350, 385, 107, 45);
+		btnCancelar.setEnabled(false);
+		contentPane.add(btnCancelar);
+
+		lblEstado = new JLabel(MSJ_SIN_OPERACIONES);
+		lblEstado.setBounds(10, 435, 447, 25);
+		contentPane.add(lblEstado);
 
 		// Añadir listener para cerrar la ventana
 		this.addWindowListener(new WindowAdapter() {
@@ -195,6 +240,14 @@ public class Interface extends JFrame {
 				realizarOperacion(OPERACION_DESCIFRAR);
 			}
 		});
+
+		btnCancelar.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+
+				cancelarOperacion();
+			}
+		});
 	}
 
 	// Metodos para mostrar mensajes
@@ -211,6 +264,7 @@ public class Interface extends JFrame {
 	}
 
 	private void cerrarVentana() {
+		colaOperaciones.shutdownNow();
 		this.dispose();
 	}
 
@@ -221,13 +275,13 @@ public class Interface extends JFrame {
 		// Especificamos que solo se pueden seleccionar archivos
 		chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
 
-		// Abrir la ventana para buscar archivos y que se verifique que sea un .png
+		// Abrir la ventana para buscar archivos y que se verifique que sea un .png (o un .bmp o .pam cifrado con BatchCli)
 		if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
 			file = chooser.getSelectedFile();
 
-			if(!file.getName().contains(".png")) {
+			if(!FormatoImagen.esImagenSoportada(file.getName())) {
 
-				// En caso de querer elegir un archivo no .png, suelta un mensaje de error y seteamos el file elegido como null
+				// En caso de querer elegir un archivo de otro tipo, suelta un mensaje de error y seteamos el file elegido como null
 				mensajeError(MSJ_ERROR_FILE_NO_PNG);
 				file = null;
 				txtNombre.setText("");
@@ -241,10 +295,7 @@ public class Interface extends JFrame {
 	// Metodo que, dependiendo el modo de operacion, cifra o descifra una imagen
 	private void realizarOperacion(int op) {
 		String keyString = txtKey.getText();
-		BufferedImage img;
 		byte[] key;
-		byte[] mensajeClaro;
-		byte[] criptograma;
 
 		// Debemos validar que: haya una key, que sea numerica de al menos 32 caracteres y que el archivo a cifrar no es nulo
 		if (keyString == null || keyString.trim().isEmpty()) {
@@ -264,41 +315,125 @@ public class Interface extends JFrame {
 			return;
 		}
 		
-		// Pasamos la key a bytes y despues, dependiendo el modo de operación, ciframos o desciframos
-		key = keyString.getBytes();
-		if (op == OPERACION_CIFRAR) {
-			try {
-				// Para cifrar leemos la imagen y la transformamos a textoClaro (array de bytes)
-				img = imgManager.leerImagen(file.getPath());
-				mensajeClaro = imgManager.convertirBytes(img);
-
-				// Ciframos ese array de bytes y despues generamos la imagen que representa el mensaje cifrado
-				criptograma = salsita.encriptar(mensajeClaro, key);
-				imgManager.escribirImagen(criptograma, img.getWidth(), img.getHeight(), PATH_CIFRADO_OUT);
-			} catch (IOException e) {
-				// Mostramos por pantalla el error y finalizamos la ejecución
-				mensajeError(MSJ_ERROR_NO_SE_PUDO_ABRIR_FILE + file.getPath());
-				return;
-			}
-		} else if (op == OPERACION_DESCIFRAR) {
-			try {
-				// Para descifrar leemos la imagen y lo transformamos al criptograma (array de bytes)
-				img = imgManager.leerImagen(file.getPath());
-				criptograma = imgManager.convertirBytes(img);
-
-				// Desciframos el mensaje y despues generamos la imagen que representa el mensaje claro
-				mensajeClaro = salsita.desencriptar(criptograma, key);
-				imgManager.escribirImagen(mensajeClaro, img.getWidth(), img.getHeight(), PATH_DESCIFRADO_OUT);
-			} catch (IOException e) {
-				// Mostramos por pantalla el error y finalizamos la ejecución
-				mensajeError(MSJ_ERROR_NO_SE_PUDO_ABRIR_FILE + file.getPath());
-				return;
-			}
+		// La salida va al lado del archivo elegido, con el mismo nombre que usa BatchCli: a.png -> a.cifrado.png o a.descifrado.png
+		TiledImageCipher cifrador = op == OPERACION_CIFRAR ? cifradorCriptogramas : cifradorImagenes;
+		Path destino = BatchCli.salida(file.toPath(), null, op == OPERACION_CIFRAR, cifrador.formato().extension());
+		if (!salidasPendientes.add(destino)) {
+			mensajeError(MSJ_ERROR_SALIDA_EN_COLA + destino);
+			return;
 		}
-		mensajeExito(MSJ_EXITO_OPERACION_REALIZADA);
+
+		// Pasamos la key a bytes y encolamos la operacion, que se ejecuta en segundo plano
+		key = keyString.getBytes();
+		encolarOperacion(new OperacionWorker(file, key, destino, cifrador));
 
 		// Reseteamos el file
 		file = null;
 		txtNombre.setText("");
 	}
+
+	// Agrega la operacion a la cola y actualiza la barra de progreso cuando empieza y a medida que avanza
+	private void encolarOperacion(OperacionWorker operacion) {
+		operacion.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("state".equals(evt.getPropertyName()) && evt.getNewValue() == SwingWorker.StateValue.STARTED) {
+					operacionActual = operacion;
+					barraProgreso.setValue(0);
+					btnCancelar.setEnabled(true);
+					actualizarEstado();
+				} else if ("progress".equals(evt.getPropertyName()) && operacion == operacionActual) {
+					barraProgreso.setValue((Integer) evt.getNewValue());
+				}
+			}
+		});
+
+		operacionesPendientes++;
+		actualizarEstado();
+		colaOperaciones.execute(operacion);
+	}
+
+	// Cancela la operacion en curso interrumpiendo su hilo. Las que estan en cola siguen
+	private void cancelarOperacion() {
+		if (operacionActual != null) {
+			operacionActual.cancel(true);
+		}
+	}
+
+	private void actualizarEstado() {
+		if (operacionesPendientes == 0) {
+			lblEstado.setText(MSJ_SIN_OPERACIONES);
+		} else if (operacionActual == null) {
+			lblEstado.setText("Operaciones en cola: " + operacionesPendientes);
+		} else {
+			lblEstado.setText("Procesando " + operacionActual.origen.getName() + " (en cola: " + (operacionesPendientes - 1) + ")");
+		}
+	}
+
+	/*
+	 * Cifra o descifra una imagen por franjas en segundo plano. El progreso se informa despues de cada franja y al terminar
+	 * se muestra el tiempo total y el throughput. Como Salsa20 es un cifrador en flujo, cifrar y descifrar es la misma operacion:
+	 * solo cambia el archivo de salida.
+	 */
+	private class OperacionWorker extends SwingWorker<Void, Void> {
+		private final File origen;
+		private final byte[] key;
+		private final Path destino;
+		private final TiledImageCipher cifrador;
+
+		// Los escribe el hilo de la operacion y se leen en done, despues de get()
+		private long bytesProcesados;
+		private long nanos;
+
+		OperacionWorker(File origen, byte[] key, Path destino, TiledImageCipher cifrador) {
+			this.origen = origen;
+			this.key = key;
+			this.destino = destino;
+			this.cifrador = cifrador;
+		}
+
+		@Override
+		protected Void doInBackground() throws Exception {
+			long inicio = System.nanoTime();
+			long inicioMetricas = Metricas.inicio();
+
+			cifrador.cifrarImagen(origen.getPath(), destino.toString(), key, (procesados, total) -> {
+				bytesProcesados = procesados;
+				setProgress((int) (procesados * 100 / Math.max(total, 1)));
+			});
+			nanos = System.nanoTime() - inicio;
+			Metricas.registrar(Etapa.OPERACION, inicioMetricas, bytesProcesados);
+			return null;
+		}
+
+		@Override
+		protected void done() {
+			if (operacionActual == this) {
+				operacionActual = null;
+				btnCancelar.setEnabled(false);
+			}
+			operacionesPendientes--;
+			salidasPendientes.remove(destino);
+			actualizarEstado();
+
+			try {
+				get();
+				double segundos = nanos / 1e9;
+				mensajeExito(MSJ_EXITO_OPERACION_REALIZADA + "\n" + String.format("%s -> %s: %.2f s, %.1f MB/s", origen.getName(), destino,
+						segundos, bytesProcesados / 1e6 / Math.max(segundos, 1e-9)));
+			} catch (CancellationException e) {
+				barraProgreso.setValue(0);
+				lblEstado.setText(MSJ_OPERACION_CANCELADA + ": " + origen.getName());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof InterruptedIOException) {
+					lblEstado.setText(MSJ_OPERACION_CANCELADA + ": " + origen.getName());
+				} else {
+					// Mostramos por pantalla el error
+					mensajeError(MSJ_ERROR_NO_SE_PUDO_ABRIR_FILE + origen.getPath());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 }
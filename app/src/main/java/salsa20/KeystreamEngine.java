@@ -0,0 +1,95 @@
+package salsa20;
+
+/*
+ * Motor que genera bloques de keystream de Salsa20. Todas las implementaciones dan exactamente los mismos bytes,
+ * solo cambia la forma de calcularlos: el motor escalar usa el nucleo de Salsa20 bloque por bloque y el vectorial
+ * calcula varios bloques consecutivos a la vez usando la Vector API (jdk.incubator.vector).
+ *
+ * El motor por defecto se elige con la propiedad de sistema "salsa20.motor":
+ *   escalar  -> siempre el nucleo escalar
+ *   vector   -> el motor vectorial (si el modulo no esta disponible se usa el escalar)
+ *   auto     -> el vectorial si la JVM se inicio con --add-modules jdk.incubator.vector, si no el escalar (valor por defecto)
+ * El motor vectorial usa la forma de vector preferida de la CPU; la propiedad "salsa20.bloques" (4, 8 o 16) fuerza otra cantidad
+ * de bloques por llamada. Un valor invalido en cualquiera de las dos propiedades se avisa por stderr y se usa el valor por defecto.
+ */
+public interface KeystreamEngine {
+
+	// Cantidad de bloques que conviene pedir en cada llamada a generarBloques
+	int bloquesPorLlamada();
+
+	/*
+	 * Escribe en salida, a partir de offset, cantidad bloques de keystream consecutivos empezando por el bloque contador,
+	 * calculados con la cantidad de rondas indicada (20, 12 u 8).
+	 * El contador sale del parametro: las celdas 8 y 9 del estado se pueden sobrescribir, el resto no se modifica.
+	 */
+	void generarBloques(int[] estado, int rondas, long contador, int cantidad, byte[] salida, int offset);
+
+	/*
+	 * Bloques de mensajes distintos bajo la misma key, por ejemplo para cifrar muchos mensajes chicos juntos (ver Salsa20Batch).
+	 * El bloque b usa como celdas 6 a 9 (nonce y contador) los valores variables[4 * b .. 4 * b + 3] y se escribe en
+	 * salida[offset + 64 * b]. Las celdas 6 a 9 del estado se pueden sobrescribir, el resto no se modifica.
+	 */
+	default void generarBloques(int[] estado, int rondas, int[] variables, int cantidad, byte[] salida, int offset) {
+		for (int b = 0; b < cantidad; b++) {
+			estado[6] = variables[4 * b];
+			estado[7] = variables[4 * b + 1];
+			estado[8] = variables[4 * b + 2];
+			estado[9] = variables[4 * b + 3];
+			Salsa20.generarBloque(estado, rondas, salida, offset + b * Salsa20.TAM_BLOQUE);
+		}
+	}
+
+	// Nombre legible del motor, por ejemplo para mostrarlo en los benchmarks
+	String nombre();
+
+	static KeystreamEngine escalar() {
+		return ScalarKeystreamEngine.INSTANCIA;
+	}
+
+	/*
+	 * Motor vectorial con la forma de vector preferida de la CPU. Si la Vector API no esta disponible, o la CPU no tiene vectores
+	 * de al menos 128 bits (4 bloques), devuelve el motor escalar
+	 */
+	static KeystreamEngine vectorial() {
+		KeystreamEngine motor = cargarVectorial(0);
+
+		return motor != null && motor.bloquesPorLlamada() >= 4 ? motor : escalar();
+	}
+
+	// Motor vectorial que calcula 4, 8 o 16 bloques por llamada. Si la Vector API no esta disponible devuelve el motor escalar
+	static KeystreamEngine vectorial(int bloques) {
+		if (bloques != 4 && bloques != 8 && bloques != 16) {
+			throw new IllegalArgumentException("El motor vectorial calcula 4, 8 o 16 bloques a la vez");
+		}
+
+		KeystreamEngine motor = cargarVectorial(bloques);
+		return motor != null ? motor : escalar();
+	}
+
+	/*
+	 * Se carga por reflexion para que esta interfaz no dependa del modulo incubator. Con bloques en 0 usa la forma preferida.
+	 * Devuelve null si no se puede cargar
+	 */
+	private static KeystreamEngine cargarVectorial(int bloques) {
+		if (!vectorDisponible()) {
+			return null;
+		}
+
+		try {
+			Class<?> clase = Class.forName("salsa20.VectorKeystreamEngine");
+			return (KeystreamEngine) (bloques == 0 ? clase.getDeclaredConstructor().newInstance()
+					: clase.getDeclaredConstructor(int.class).newInstance(bloques));
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	static boolean vectorDisponible() {
+		return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	}
+
+	// Motor elegido por las propiedades de sistema. Se calcula una sola vez
+	static KeystreamEngine porDefecto() {
+		return KeystreamEngines.POR_DEFECTO;
+	}
+}
@@ -0,0 +1,41 @@
+package salsa20;
+
+/*
+ * Guarda el motor de keystream elegido con las propiedades de sistema "salsa20.motor" y "salsa20.bloques".
+ * Como lo usan todos los cifradores, un valor invalido no puede hacer fallar la inicializacion de esta clase: se avisa y se usa el valor
+ * por defecto (motor auto, con la forma de vector preferida).
+ */
+final class KeystreamEngines {
+
+	static final KeystreamEngine POR_DEFECTO = elegirPorDefecto();
+
+	private KeystreamEngines() {
+	}
+
+	private static KeystreamEngine elegirPorDefecto() {
+		String motor = System.getProperty("salsa20.motor", "auto");
+		String bloques = System.getProperty("salsa20.bloques");
+
+		if (!motor.equals("escalar") && !motor.equals("vector") && !motor.equals("auto")) {
+			avisar("salsa20.motor debe ser escalar, vector o auto, no " + motor + ". Se usa auto");
+			motor = "auto";
+		}
+		if (motor.equals("escalar") || (motor.equals("auto") && !KeystreamEngine.vectorDisponible())) {
+			return KeystreamEngine.escalar();
+		}
+		if (bloques == null) {
+			return KeystreamEngine.vectorial();
+		}
+
+		try {
+			return KeystreamEngine.vectorial(Integer.parseInt(bloques.trim()));
+		} catch (IllegalArgumentException e) {
+			avisar("salsa20.bloques debe ser 4, 8 o 16, no " + bloques + ". Se usa la forma de vector preferida");
+			return KeystreamEngine.vectorial();
+		}
+	}
+
+	private static void avisar(String mensaje) {
+		System.err.println("Advertencia: " + mensaje);
+	}
+}
@@ -0,0 +1,95 @@
+package salsa20;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Cifra archivos (en el lugar o de un archivo a otro) recorriendolos en ventanas mapeadas a memoria con FileChannel.map.
+ * Cada ventana se cifra directamente sobre la memoria mapeada con el update de ByteBuffer, asi que nunca se copia el archivo al heap
+ * y la memoria usada es la misma sin importar el tamaño. El contador de bloques es el de 64 bits de Salsa20Cipher, por lo que el
+ * tamaño del archivo solo esta limitado por la especificacion (2^64 bloques de 64 bytes).
+ */
+public class MappedFileCipher {
+
+	// Tamaño por defecto de cada ventana mapeada
+	public static final int TAM_VENTANA_POR_DEFECTO = 64 * 1024 * 1024;
+
+	private final int tamVentana;
+
+	public MappedFileCipher() {
+		this(TAM_VENTANA_POR_DEFECTO);
+	}
+
+	// El tamaño de la ventana debe ser un multiplo de 64 para que cada ventana empiece en un bloque entero
+	public MappedFileCipher(int tamVentana) {
+		if (tamVentana <= 0 || tamVentana % Salsa20.TAM_BLOQUE != 0) {
+			throw new IllegalArgumentException("El tamaño de la ventana debe ser un multiplo positivo de " + Salsa20.TAM_BLOQUE);
+		}
+		this.tamVentana = tamVentana;
+	}
+
+	// Cifra (o descifra) el archivo origen y escribe el resultado en destino, que se crea o se pisa
+	public void cifrarArchivo(Path origen, Path destino, byte[] key, byte[] nonce) throws IOException {
+		cifrarArchivo(origen, destino, new Salsa20Key(key), nonce);
+	}
+
+	/*
+	 * Igual que el anterior con una key ya cargada, que ademas fija las rondas (ver Salsa20Key).
+	 * Si origen y destino son el mismo archivo se cifra en el lugar: abrir el destino truncandolo borraria el origen antes de leerlo.
+	 */
+	public void cifrarArchivo(Path origen, Path destino, Salsa20Key key, byte[] nonce) throws IOException {
+		if (Files.exists(destino) && Files.isSameFile(origen, destino)) {
+			cifrarEnLugar(origen, key, nonce);
+			return;
+		}
+
+		Salsa20Cipher cifrador = key.newCipher(nonce);
+
+		try (FileChannel entrada = FileChannel.open(origen, StandardOpenOption.READ);
+				FileChannel salida = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long tamanio = entrada.size();
+			long posicion = 0;
+			long cantidad;
+			MappedByteBuffer ventanaEntrada, ventanaSalida;
+
+			// Mapear la salida en modo lectura/escritura la va agrandando a medida que avanzamos
+			while (posicion < tamanio) {
+				cantidad = Math.min(tamVentana, tamanio - posicion);
+				ventanaEntrada = entrada.map(FileChannel.MapMode.READ_ONLY, posicion, cantidad);
+				ventanaSalida = salida.map(FileChannel.MapMode.READ_WRITE, posicion, cantidad);
+
+				cifrador.update(ventanaEntrada, ventanaSalida);
+				posicion += cantidad;
+			}
+		}
+	}
+
+	// Cifra (o descifra) el archivo en el lugar, sin crear ningun archivo intermedio
+	public void cifrarEnLugar(Path archivo, byte[] key, byte[] nonce) throws IOException {
+		cifrarEnLugar(archivo, new Salsa20Key(key), nonce);
+	}
+
+	public void cifrarEnLugar(Path archivo, Salsa20Key key, byte[] nonce) throws IOException {
+		Salsa20Cipher cifrador = key.newCipher(nonce);
+
+		try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long tamanio = canal.size();
+			long posicion = 0;
+			long cantidad;
+			MappedByteBuffer ventana;
+
+			while (posicion < tamanio) {
+				cantidad = Math.min(tamVentana, tamanio - posicion);
+				ventana = canal.map(FileChannel.MapMode.READ_WRITE, posicion, cantidad);
+
+				cifrador.update(ventana, ventana);
+				posicion += cantidad;
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package salsa20;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Metricas de rendimiento del cifrador y del manejo de imagenes: contadores de bytes cifrados y de bloques de keystream generados,
+ * un Histograma de latencias por Etapa, eventos de Flight Recorder (salsa20.Etapa) y listeners opcionales.
+ *
+ * Estan desactivadas por defecto y se activan con -Dsalsa20.metricas=true o con activar(). Desactivadas, cada operacion instrumentada
+ * solo lee un flag volatile al empezar y compara un long al terminar: no se llama a System.nanoTime ni se reserva memoria.
+ * Las mediciones son por llamada (un update, una franja, una imagen) y nunca por bloque, asi que activadas tampoco cuestan mucho.
+ * Los eventos de Flight Recorder solo se graban si ademas hay una grabacion en curso (el evento esta habilitado por defecto).
+ */
+public final class Metricas {
+
+	// Valor de inicio() cuando las metricas estan desactivadas
+	static final long SIN_MEDIR = Long.MIN_VALUE;
+
+	private static volatile boolean activas = Boolean.getBoolean("salsa20.metricas");
+
+	private static final LongAdder BYTES_CIFRADOS = new LongAdder();
+	private static final LongAdder BLOQUES_GENERADOS = new LongAdder();
+	private static final Map<Etapa, Histograma> HISTOGRAMAS = new EnumMap<>(Etapa.class);
+	private static final CopyOnWriteArrayList<MetricasListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	static {
+		for (Etapa etapa : Etapa.values()) {
+			HISTOGRAMAS.put(etapa, new Histograma());
+		}
+	}
+
+	private Metricas() {
+	}
+
+	public static boolean activas() {
+		return activas;
+	}
+
+	public static void activar() {
+		activas = true;
+	}
+
+	public static void desactivar() {
+		activas = false;
+	}
+
+	public static void agregarListener(MetricasListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	public static void quitarListener(MetricasListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	// Bytes que pasaron por Salsa20Cipher.update desde el ultimo reiniciar
+	public static long bytesCifrados() {
+		return BYTES_CIFRADOS.sum();
+	}
+
+	// Bloques de 64 bytes de keystream que calcularon los motores desde el ultimo reiniciar
+	public static long bloquesGenerados() {
+		return BLOQUES_GENERADOS.sum();
+	}
+
+	public static Histograma histograma(Etapa etapa) {
+		return HISTOGRAMAS.get(etapa);
+	}
+
+	// Pone en cero los contadores y los histogramas. Los listeners siguen registrados
+	public static void reiniciar() {
+		BYTES_CIFRADOS.reset();
+		BLOQUES_GENERADOS.reset();
+		for (Histograma histograma : HISTOGRAMAS.values()) {
+			histograma.reiniciar();
+		}
+	}
+
+	// Tabla con los contadores y, por cada etapa medida, cantidad, promedio, p50, p99, maximo y MB/s
+	public static String resumen() {
+		StringBuilder sb = new StringBuilder();
+		Histograma h;
+
+		sb.append(String.format("Bytes cifrados: %d, bloques de keystream: %d%n", bytesCifrados(), bloquesGenerados()));
+		sb.append(String.format("%-11s %10s %12s %12s %12s %12s %10s%n", "Etapa", "Cantidad", "Prom (us)", "p50 (us)", "p99 (us)",
+				"Max (us)", "MB/s"));
+		for (Etapa etapa : Etapa.values()) {
+			h = HISTOGRAMAS.get(etapa);
+			if (h.cantidad() > 0) {
+				sb.append(String.format("%-11s %10d %12.1f %12.1f %12.1f %12.1f %10.1f%n", etapa, h.cantidad(), h.promedioNanos() / 1e3,
+						h.percentilNanos(0.5) / 1e3, h.percentilNanos(0.99) / 1e3, h.maximoNanos() / 1e3, h.megabytesPorSegundo()));
+			}
+		}
+		return sb.toString();
+	}
+
+	// Momento en que empieza una etapa, o SIN_MEDIR si las metricas estan desactivadas. Se pasa despues a registrar
+	static long inicio() {
+		return activas ? System.nanoTime() : SIN_MEDIR;
+	}
+
+	// Cierra la medicion de una etapa que empezo en inicio. No hace nada si se empezo con las metricas desactivadas
+	static void registrar(Etapa etapa, long inicio, long bytes) {
+		if (inicio != SIN_MEDIR) {
+			registrarNanos(etapa, System.nanoTime() - inicio, bytes);
+		}
+	}
+
+	/*
+	 * Cierra la medicion de un update de Salsa20Cipher: nanosKeystream es lo que tardo el motor, el resto del tiempo se cuenta como XOR.
+	 * bloques son los bloques de keystream generados durante la llamada.
+	 */
+	static void registrarCifrado(long inicio, long nanosKeystream, long bytes, long bloques) {
+		if (inicio == SIN_MEDIR) {
+			return;
+		}
+
+		long total = System.nanoTime() - inicio;
+
+		BYTES_CIFRADOS.add(bytes);
+		BLOQUES_GENERADOS.add(bloques);
+		if (bloques > 0) {
+			registrarNanos(Etapa.KEYSTREAM, nanosKeystream, bloques * Salsa20.TAM_BLOQUE);
+		}
+		registrarNanos(Etapa.XOR, total - nanosKeystream, bytes);
+	}
+
+	private static void registrarNanos(Etapa etapa, long nanos, long bytes) {
+		HISTOGRAMAS.get(etapa).registrar(nanos, bytes);
+
+		for (MetricasListener listener : LISTENERS) {
+			listener.medicion(etapa, nanos, bytes);
+		}
+
+		// Si no hay una grabacion con el evento habilitado, shouldCommit da false y el objeto no escapa (el JIT no lo reserva)
+		EtapaEvent evento = new EtapaEvent();
+		if (evento.shouldCommit()) {
+			evento.etapa = etapa.name();
+			evento.duracion = nanos;
+			evento.bytes = bytes;
+			evento.commit();
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package salsa20;
+
+/*
+ * Recibe cada medicion de una etapa cuando las metricas estan activas (ver Metricas), por ejemplo para pasarlas a otro sistema de metricas.
+ * Se llama desde el hilo que hizo el trabajo, muchas veces por segundo, asi que tiene que ser rapido y thread-safe.
+ */
+@FunctionalInterface
+public interface MetricasListener {
+
+	void medicion(Etapa etapa, long nanos, long bytes);
+}
@@ -0,0 +1,261 @@
+package salsa20;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Cifra archivos o canales con un pipeline de tres etapas que corren a la vez: un hilo lee, uno o mas hilos cifran y un hilo escribe.
+ * Los datos pasan por un anillo de buffers directos que se reutilizan, asi que mientras se cifra un tramo ya se esta leyendo el siguiente
+ * y escribiendo el anterior, y el throughput se acerca al de la etapa mas lenta (disco o cifrado) en lugar de a la suma de las dos.
+ * Si una etapa se atrasa, las demas se bloquean al quedarse sin buffers (backpressure) y la memoria usada no pasa del anillo.
+ *
+ * Cada tramo lleva su offset en el flujo y el cifrador se posiciona ahi, asi que los hilos de cifrado pueden procesar tramos en cualquier orden;
+ * el escritor los escribe en el orden en que se leyeron. El resultado es igual byte a byte al de Salsa20Cipher sobre todo el flujo.
+ */
+public class PipelinedFileCipher {
+
+	public static final int TAM_BUFFER_POR_DEFECTO = 1024 * 1024;
+	public static final int BUFFERS_POR_DEFECTO = 8;
+
+	private final int tamBuffer;
+	private final int cantidadBuffers;
+	private final int hilosCifrado;
+
+	public PipelinedFileCipher() {
+		this(TAM_BUFFER_POR_DEFECTO, BUFFERS_POR_DEFECTO, 1);
+	}
+
+	// tamBuffer debe ser un multiplo de 64 y hacen falta al menos dos buffers para que las etapas se superpongan
+	public PipelinedFileCipher(int tamBuffer, int cantidadBuffers, int hilosCifrado) {
+		if (tamBuffer <= 0 || tamBuffer % Salsa20.TAM_BLOQUE != 0) {
+			throw new IllegalArgumentException("El tamaño de buffer debe ser un multiplo positivo de " + Salsa20.TAM_BLOQUE);
+		}
+		if (cantidadBuffers < 2) {
+			throw new IllegalArgumentException("Hacen falta al menos dos buffers");
+		}
+		if (hilosCifrado <= 0) {
+			throw new IllegalArgumentException("Hace falta al menos un hilo de cifrado");
+		}
+		this.tamBuffer = tamBuffer;
+		this.cantidadBuffers = cantidadBuffers;
+		this.hilosCifrado = hilosCifrado;
+	}
+
+	/*
+	 * Cifra (o descifra) el archivo origen y escribe el resultado en destino, que se crea o se pisa. Devuelve la cantidad de bytes procesados.
+	 * Origen y destino no pueden ser el mismo archivo: al abrir el destino se borraria el origen antes de leerlo.
+	 */
+	public long cifrarArchivo(Path origen, Path destino, Salsa20Key key, byte[] nonce) throws IOException {
+		if (Files.exists(destino) && Files.isSameFile(origen, destino)) {
+			throw new IllegalArgumentException("El origen y el destino son el mismo archivo: " + origen);
+		}
+
+		try (FileChannel entrada = FileChannel.open(origen, StandardOpenOption.READ);
+				FileChannel salida = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			return cifrar(entrada, salida, key, nonce);
+		}
+	}
+
+	/*
+	 * Cifra (o descifra) todo lo que se lea de entrada hasta el final y lo escribe en salida. Los canales no se cierran.
+	 * Si una etapa falla, se detienen las demas y se lanza el error de esa etapa.
+	 */
+	public long cifrar(ReadableByteChannel entrada, WritableByteChannel salida, Salsa20Key key, byte[] nonce) throws IOException {
+		ExecutorService hilos = Executors.newFixedThreadPool(2 + hilosCifrado, VirtualThreads.hilosDaemon("salsa20-pipeline"));
+		Pipeline pipeline = new Pipeline(entrada, salida, key, nonce, hilos);
+
+		try {
+			Future<?> lector = hilos.submit(() -> {
+				pipeline.leer();
+				return null;
+			});
+			for (int i = 0; i < hilosCifrado; i++) {
+				hilos.submit(() -> {
+					pipeline.cifrar();
+					return null;
+				});
+			}
+			Future<Long> escritor = hilos.submit(pipeline::escribir);
+
+			long total = escritor.get();
+			lector.get();
+			return total;
+		} catch (ExecutionException e) {
+			// Si fallo el escritor por culpa de otra etapa, el error real es el de esa etapa
+			throw errorDeEtapa(pipeline.error != null ? pipeline.error : e.getCause());
+		} catch (RejectedExecutionException e) {
+			// Una etapa que falla enseguida puede cerrar el pool antes de que se lancen las demas
+			if (pipeline.error == null) {
+				throw e;
+			}
+			throw errorDeEtapa(pipeline.error);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Se interrumpio el cifrado");
+		} finally {
+			hilos.shutdownNow();
+		}
+	}
+
+	// Los IOException y los Error de una etapa se relanzan tal cual; el resto se envuelve en un IOException
+	private static IOException errorDeEtapa(Throwable causa) {
+		if (causa instanceof IOException) {
+			return (IOException) causa;
+		}
+		if (causa instanceof Error) {
+			throw (Error) causa;
+		}
+		return new IOException("Fallo el pipeline de cifrado", causa);
+	}
+
+	// Un buffer del anillo con su posicion en el flujo. listo se libera cuando el tramo ya esta cifrado
+	private static final class Tramo {
+		final ByteBuffer buffer;
+		final Semaphore listo = new Semaphore(0);
+		long offset;
+		boolean fin;
+
+		Tramo(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	private final class Pipeline {
+		private final ReadableByteChannel entrada;
+		private final WritableByteChannel salida;
+		private final Salsa20Key key;
+		private final byte[] nonce;
+		private final ExecutorService hilos;
+
+		// Buffers vacios, tramos leidos que faltan cifrar y tramos leidos en el orden en que hay que escribirlos
+		private final BlockingQueue<Tramo> libres = new ArrayBlockingQueue<>(cantidadBuffers);
+		private final BlockingQueue<Tramo> paraCifrar = new ArrayBlockingQueue<>(cantidadBuffers + hilosCifrado);
+		private final BlockingQueue<Tramo> paraEscribir = new ArrayBlockingQueue<>(cantidadBuffers + 1);
+
+		// Primer error de cualquier etapa
+		private volatile Throwable error;
+
+		Pipeline(ReadableByteChannel entrada, WritableByteChannel salida, Salsa20Key key, byte[] nonce, ExecutorService hilos) {
+			this.entrada = entrada;
+			this.salida = salida;
+			this.key = key;
+			this.nonce = nonce;
+			this.hilos = hilos;
+
+			for (int i = 0; i < cantidadBuffers; i++) {
+				libres.add(new Tramo(ByteBuffer.allocateDirect(tamBuffer)));
+			}
+		}
+
+		// Llena buffers libres hasta el final de la entrada. Al final manda un tramo de fin a cada hilo de cifrado y al escritor
+		void leer() throws Exception {
+			long offset = 0;
+			boolean lleno;
+			Tramo tramo;
+
+			try {
+				do {
+					tramo = libres.take();
+					tramo.buffer.clear();
+					while (tramo.buffer.hasRemaining() && entrada.read(tramo.buffer) >= 0) {
+						// Seguimos hasta llenar el buffer o llegar al final
+					}
+					tramo.buffer.flip();
+					tramo.offset = offset;
+					offset += tramo.buffer.remaining();
+
+					// Un buffer incompleto es el ultimo. Lo miramos antes de pasarlo a las otras etapas, que lo modifican
+					lleno = tramo.buffer.limit() == tamBuffer;
+					paraEscribir.put(tramo);
+					paraCifrar.put(tramo);
+				} while (lleno);
+
+				for (int i = 0; i < hilosCifrado; i++) {
+					paraCifrar.put(tramoFin());
+				}
+				paraEscribir.put(tramoFin());
+			} catch (Throwable e) {
+				fallar(e);
+				throw e;
+			}
+		}
+
+		// Cada hilo de cifrado tiene su propio cifrador y lo posiciona en el offset de cada tramo
+		void cifrar() throws Exception {
+			Salsa20Cipher cifrador = key.newCipher(nonce);
+			Tramo tramo;
+
+			try {
+				while (!(tramo = paraCifrar.take()).fin) {
+					cifrador.seek(tramo.offset);
+					cifrador.update(tramo.buffer, tramo.buffer.duplicate());
+					tramo.buffer.flip();
+					tramo.listo.release();
+				}
+			} catch (Throwable e) {
+				fallar(e);
+				throw e;
+			}
+		}
+
+		// Escribe los tramos en el orden en que se leyeron, esperando a que cada uno este cifrado, y devuelve el buffer al anillo
+		long escribir() throws Exception {
+			long total = 0;
+			Tramo tramo;
+
+			try {
+				while (!(tramo = paraEscribir.take()).fin) {
+					tramo.listo.acquire();
+					total += tramo.buffer.remaining();
+					while (tramo.buffer.hasRemaining()) {
+						salida.write(tramo.buffer);
+					}
+					libres.put(tramo);
+				}
+				return total;
+			} catch (Throwable e) {
+				fallar(e);
+				throw e;
+			}
+		}
+
+		// Tramo vacio que marca el final. No sale del anillo
+		private Tramo tramoFin() {
+			Tramo fin = new Tramo(null);
+			fin.fin = true;
+			return fin;
+		}
+
+		/*
+		 * Guarda el primer error e interrumpe las demas etapas, que pueden estar bloqueadas esperando un tramo que no va a llegar.
+		 * Las etapas la llaman con cualquier Throwable, tambien un Error como OutOfMemoryError, para que nunca queden etapas esperando
+		 */
+		private void fallar(Throwable e) {
+			if (e instanceof InterruptedException) {
+				return;
+			}
+			synchronized (this) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			hilos.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package salsa20;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Lee un PNG fila por fila, descomprimiendo los chunks IDAT a medida que se piden filas. Los lectores de ImageIO decodifican
+ * el PNG desde el principio en cada llamada a read, por lo que leer por franjas con ellos cuesta una decodificacion completa
+ * por franja; este lector recorre el archivo una sola vez. Solo soporta los PNG que ImageIO entrega como TYPE_3BYTE_BGR o
+ * TYPE_4BYTE_ABGR (RGB o RGBA de 8 bits, sin entrelazado, sin paleta, sin tRNS ni perfil ICC), que son tambien los que
+ * genera este proyecto. Para esos formatos las filas salen igual que con ImageManager.convertirBytes: A, R, G, B por pixel.
+ */
+class PngStripReader implements StripReader {
+
+	private static final byte[] FIRMA = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+	private static final int IHDR = 0x49484452, IDAT = 0x49444154, PLTE = 0x504c5445, TRNS = 0x74524e53, ICCP = 0x69434350;
+
+	private final DataInputStream archivo;
+	private final DataInputStream filas;
+	private final int ancho;
+	private final int alto;
+	private final int bytesPorPixel;
+
+	// Fila actual y anterior ya sin filtro (sin el byte de tipo de filtro)
+	private byte[] fila;
+	private byte[] filaAnterior;
+	private int filasLeidas;
+
+	// Bytes que faltan leer del chunk IDAT actual, y si ya se paso el ultimo IDAT
+	private int restanteIdat;
+	private boolean finIdat;
+
+	private PngStripReader(DataInputStream archivo, int ancho, int alto, int bytesPorPixel) {
+		this.archivo = archivo;
+		this.ancho = ancho;
+		this.alto = alto;
+		this.bytesPorPixel = bytesPorPixel;
+		this.fila = new byte[ancho * bytesPorPixel];
+		this.filaAnterior = new byte[ancho * bytesPorPixel];
+		this.filas = new DataInputStream(new InflaterInputStream(new IdatInputStream()));
+	}
+
+	// Abre el PNG y lee su cabecera. Devuelve null si el archivo no es un PNG soportado, para usar otro lector
+	static PngStripReader abrir(Path path) throws IOException {
+		DataInputStream archivo = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+		PngStripReader lector = null;
+
+		try {
+			lector = leerCabecera(archivo);
+			return lector;
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			if (lector == null) {
+				archivo.close();
+			}
+		}
+	}
+
+	private static PngStripReader leerCabecera(DataInputStream archivo) throws IOException {
+		byte[] firma = new byte[FIRMA.length];
+		int largo, tipo, ancho = 0, alto = 0, bytesPorPixel = 0;
+
+		archivo.readFully(firma);
+		if (!Arrays.equals(firma, FIRMA)) {
+			return null;
+		}
+
+		// Recorremos los chunks hasta el primer IDAT, verificando que el formato sea uno de los soportados
+		while (true) {
+			largo = archivo.readInt();
+			tipo = archivo.readInt();
+
+			if (tipo == IDAT) {
+				PngStripReader lector = new PngStripReader(archivo, ancho, alto, bytesPorPixel);
+				lector.restanteIdat = largo;
+				return bytesPorPixel == 0 ? null : lector;
+			}
+			if (tipo == PLTE || tipo == TRNS || tipo == ICCP) {
+				return null;
+			}
+			if (tipo == IHDR) {
+				ancho = archivo.readInt();
+				alto = archivo.readInt();
+				int bits = archivo.readUnsignedByte();
+				int color = archivo.readUnsignedByte();
+				archivo.readUnsignedByte(); // compresion
+				archivo.readUnsignedByte(); // filtro
+				int entrelazado = archivo.readUnsignedByte();
+
+				if (bits != 8 || entrelazado != 0 || (color != 2 && color != 6)) {
+					return null;
+				}
+				bytesPorPixel = color == 6 ? 4 : 3;
+				largo -= 13;
+			}
+			archivo.skipNBytes(largo + 4L); // datos restantes y CRC
+		}
+	}
+
+	@Override
+	public int ancho() {
+		return ancho;
+	}
+
+	@Override
+	public int alto() {
+		return alto;
+	}
+
+	// Lee las proximas filas y las deja en pixels a partir de offset, con 4 bytes por pixel (A, R, G, B)
+	@Override
+	public void leerFilas(byte[] pixels, int offset, int cantidad) throws IOException {
+		if (filasLeidas + cantidad > alto) {
+			throw new IllegalStateException("Se pidieron mas filas que el alto de la imagen");
+		}
+
+		for (int f = 0; f < cantidad; f++) {
+			leerFila();
+
+			int p = offset + f * ancho * 4;
+			for (int i = 0, j = 0; i < ancho; i++, j += bytesPorPixel) {
+				pixels[p] = bytesPorPixel == 4 ? fila[j + 3] : (byte) 0xff;
+				pixels[p + 1] = fila[j];
+				pixels[p + 2] = fila[j + 1];
+				pixels[p + 3] = fila[j + 2];
+				p += 4;
+			}
+		}
+		filasLeidas += cantidad;
+	}
+
+	// Descomprime una fila y deshace el filtro PNG usando la fila anterior
+	private void leerFila() throws IOException {
+		byte[] aux = filaAnterior;
+		filaAnterior = fila;
+		fila = aux;
+
+		int filtro = filas.read();
+		if (filtro == -1) {
+			throw new EOFException("El PNG termina antes de la ultima fila");
+		}
+		filas.readFully(fila);
+
+		// Las filas sin filtro (todas las de los PNG que genera este proyecto) ya estan listas
+		if (filtro == 0) {
+			return;
+		}
+
+		int a, b, c, pa, pb, pc, p;
+		for (int i = 0; i < fila.length; i++) {
+			a = i >= bytesPorPixel ? fila[i - bytesPorPixel] & 0xff : 0;
+			b = filaAnterior[i] & 0xff;
+			c = i >= bytesPorPixel ? filaAnterior[i - bytesPorPixel] & 0xff : 0;
+
+			switch (filtro) {
+			case 1:
+				fila[i] += a;
+				break;
+			case 2:
+				fila[i] += b;
+				break;
+			case 3:
+				fila[i] += (a + b) >>> 1;
+				break;
+			case 4:
+				// Predictor de Paeth
+				p = a + b - c;
+				pa = Math.abs(p - a);
+				pb = Math.abs(p - b);
+				pc = Math.abs(p - c);
+				fila[i] += (pa <= pb && pa <= pc) ? a : (pb <= pc ? b : c);
+				break;
+			default:
+				throw new IOException("Tipo de filtro PNG invalido: " + filtro);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		archivo.close();
+	}
+
+	// Concatena los datos de los chunks IDAT consecutivos, salteando los CRC
+	private class IdatInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (restanteIdat == 0) {
+				if (finIdat) {
+					return -1;
+				}
+				archivo.readInt(); // CRC del chunk anterior
+				int largo = archivo.readInt();
+				if (archivo.readInt() != IDAT) {
+					finIdat = true;
+					return -1;
+				}
+				restanteIdat = largo;
+			}
+
+			int leidos = archivo.read(b, off, Math.min(len, restanteIdat));
+			if (leidos == -1) {
+				throw new EOFException("El PNG termina en medio de un chunk IDAT");
+			}
+			restanteIdat -= leidos;
+			return leidos;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package salsa20;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/*
+ * Escribe un PNG RGBA de 8 bits por canal de a franjas de filas, sin tener nunca la imagen completa en memoria.
+ * Los pixeles llegan en el mismo formato que usa ImageManager (4 bytes por pixel: A, R, G, B). Las filas comprimidas
+ * se van emitiendo en chunks IDAT de tamaño acotado, asi que la memoria usada depende solo del ancho de la imagen.
+ * El nivel de deflate se puede elegir: con 0 los datos solo se almacenan, que es lo que conviene para pixeles cifrados.
+ */
+class PngStripWriter implements StripWriter {
+
+	private static final byte[] FIRMA = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+	private static final int TAM_IDAT = 64 * 1024;
+
+	private final OutputStream out;
+	private final int ancho;
+	private final int alto;
+	private final DeflaterOutputStream comprimido;
+	private final Deflater deflater;
+
+	// Una fila en formato PNG: el byte de filtro (0, ninguno) y despues R, G, B, A por pixel
+	private final byte[] fila;
+
+	private int filasEscritas;
+
+	PngStripWriter(OutputStream out, int ancho, int alto) throws IOException {
+		this(out, ancho, alto, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	// nivelCompresion va de 0 (sin compresion) a 9 (maxima), o -1 para el nivel por defecto de deflate
+	PngStripWriter(OutputStream out, int ancho, int alto, int nivelCompresion) throws IOException {
+		if (nivelCompresion < Deflater.DEFAULT_COMPRESSION || nivelCompresion > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("El nivel de compresion debe estar entre -1 y 9");
+		}
+		this.out = out;
+		this.ancho = ancho;
+		this.alto = alto;
+		this.fila = new byte[1 + ancho * 4];
+
+		out.write(FIRMA);
+		escribirCabecera();
+
+		deflater = new Deflater(nivelCompresion);
+		comprimido = new DeflaterOutputStream(new IdatOutputStream(), deflater, TAM_IDAT);
+	}
+
+	// Agrega filas a la imagen. pixels tiene filas * ancho pixeles en formato A, R, G, B a partir de offset
+	@Override
+	public void escribirFilas(byte[] pixels, int offset, int filas) throws IOException {
+		if (filasEscritas + filas > alto) {
+			throw new IllegalStateException("Se escribieron mas filas que el alto de la imagen");
+		}
+
+		for (int f = 0; f < filas; f++) {
+			int p = offset + f * ancho * 4;
+
+			for (int i = 0; i < ancho; i++) {
+				fila[1 + i * 4] = pixels[p + 1];
+				fila[2 + i * 4] = pixels[p + 2];
+				fila[3 + i * 4] = pixels[p + 3];
+				fila[4 + i * 4] = pixels[p];
+				p += 4;
+			}
+			comprimido.write(fila);
+		}
+		filasEscritas += filas;
+	}
+
+	// Termina la compresion y escribe el final del PNG. No cierra el stream de salida
+	@Override
+	public void terminar() throws IOException {
+		if (filasEscritas != alto) {
+			throw new IllegalStateException("Faltan filas: se escribieron " + filasEscritas + " de " + alto);
+		}
+		comprimido.finish();
+		comprimido.flush();
+		deflater.end();
+		escribirChunk("IEND", new byte[0], 0);
+	}
+
+	private void escribirCabecera() throws IOException {
+		byte[] ihdr = new byte[13];
+
+		guardarEnteroBE(ihdr, 0, ancho);
+		guardarEnteroBE(ihdr, 4, alto);
+		ihdr[8] = 8; // bits por canal
+		ihdr[9] = 6; // RGBA
+		ihdr[10] = 0; // compresion deflate
+		ihdr[11] = 0; // filtrado estandar
+		ihdr[12] = 0; // sin entrelazado
+		escribirChunk("IHDR", ihdr, ihdr.length);
+	}
+
+	// Un chunk PNG: longitud, tipo, datos y CRC del tipo y los datos
+	private void escribirChunk(String tipo, byte[] datos, int len) throws IOException {
+		byte[] cabecera = new byte[8];
+		byte[] tipoBytes = tipo.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+
+		guardarEnteroBE(cabecera, 0, len);
+		System.arraycopy(tipoBytes, 0, cabecera, 4, 4);
+		crc.update(tipoBytes);
+		crc.update(datos, 0, len);
+
+		out.write(cabecera);
+		out.write(datos, 0, len);
+		guardarEnteroBE(cabecera, 0, (int) crc.getValue());
+		out.write(cabecera, 0, 4);
+	}
+
+	private static void guardarEnteroBE(byte[] x, int offset, int valor) {
+		x[offset] = (byte) (valor >>> 24);
+		x[offset + 1] = (byte) (valor >>> 16);
+		x[offset + 2] = (byte) (valor >>> 8);
+		x[offset + 3] = (byte) valor;
+	}
+
+	// Junta los bytes comprimidos y los emite como chunks IDAT de hasta TAM_IDAT bytes
+	private class IdatOutputStream extends OutputStream {
+		private final byte[] buffer = new byte[TAM_IDAT];
+		private int usados;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (usados == buffer.length) {
+				flush();
+			}
+			buffer[usados++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int cantidad;
+
+			while (len > 0) {
+				if (usados == buffer.length) {
+					flush();
+				}
+				cantidad = Math.min(len, buffer.length - usados);
+				System.arraycopy(b, off, buffer, usados, cantidad);
+				usados += cantidad;
+				off += cantidad;
+				len -= cantidad;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (usados > 0) {
+				escribirChunk("IDAT", buffer, usados);
+				usados = 0;
+			}
+		}
+	}
+}
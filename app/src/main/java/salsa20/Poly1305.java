@@ -0,0 +1,172 @@
+package salsa20;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+ * MAC Poly1305 de un solo uso (key de 32 bytes: r || s). El acumulador se guarda en cinco limbs de 26 bits para que los productos
+ * entren en un long, como en poly1305-donna. Se puede alimentar con pedazos de cualquier tamaño: los bytes de un bloque incompleto
+ * se guardan hasta la siguiente llamada. No reserva memoria despues de construido, asi que se puede reutilizar con init.
+ */
+final class Poly1305 {
+
+	static final int TAM_KEY = 32;
+	static final int TAM_TAG = 16;
+
+	private static final int TAM_BLOQUE = 16;
+	private static final int MASCARA = 0x3ffffff;
+
+	private static final VarHandle INT_ARRAY = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	// r (con el clamp aplicado) y r * 5 para la reduccion modulo 2^130 - 5
+	private int r0, r1, r2, r3, r4;
+	private int s1, s2, s3, s4;
+
+	// Acumulador
+	private int h0, h1, h2, h3, h4;
+
+	// s, que se suma al final
+	private int pad0, pad1, pad2, pad3;
+
+	// Bloque incompleto pendiente
+	private final byte[] pendiente = new byte[TAM_BLOQUE];
+	private int cantPendiente;
+
+	// Carga la key de un solo uso a partir de key[offset] y reinicia el acumulador
+	void init(byte[] key, int offset) {
+		int t0 = (int) INT_ARRAY.get(key, offset);
+		int t1 = (int) INT_ARRAY.get(key, offset + 4);
+		int t2 = (int) INT_ARRAY.get(key, offset + 8);
+		int t3 = (int) INT_ARRAY.get(key, offset + 12);
+
+		r0 = t0 & 0x3ffffff;
+		r1 = ((t0 >>> 26) | (t1 << 6)) & 0x3ffff03;
+		r2 = ((t1 >>> 20) | (t2 << 12)) & 0x3ffc0ff;
+		r3 = ((t2 >>> 14) | (t3 << 18)) & 0x3f03fff;
+		r4 = (t3 >>> 8) & 0x00fffff;
+		s1 = r1 * 5;
+		s2 = r2 * 5;
+		s3 = r3 * 5;
+		s4 = r4 * 5;
+
+		pad0 = (int) INT_ARRAY.get(key, offset + 16);
+		pad1 = (int) INT_ARRAY.get(key, offset + 20);
+		pad2 = (int) INT_ARRAY.get(key, offset + 24);
+		pad3 = (int) INT_ARRAY.get(key, offset + 28);
+
+		h0 = h1 = h2 = h3 = h4 = 0;
+		cantPendiente = 0;
+	}
+
+	void update(byte[] m, int offset, int len) {
+		int cantidad;
+
+		// Completamos primero el bloque que haya quedado pendiente
+		if (cantPendiente > 0) {
+			cantidad = Math.min(len, TAM_BLOQUE - cantPendiente);
+			System.arraycopy(m, offset, pendiente, cantPendiente, cantidad);
+			cantPendiente += cantidad;
+			offset += cantidad;
+			len -= cantidad;
+			if (cantPendiente < TAM_BLOQUE) {
+				return;
+			}
+			procesarBloque(pendiente, 0, 1 << 24);
+			cantPendiente = 0;
+		}
+
+		while (len >= TAM_BLOQUE) {
+			procesarBloque(m, offset, 1 << 24);
+			offset += TAM_BLOQUE;
+			len -= TAM_BLOQUE;
+		}
+
+		if (len > 0) {
+			System.arraycopy(m, offset, pendiente, 0, len);
+			cantPendiente = len;
+		}
+	}
+
+	// Escribe el tag de 16 bytes en tag a partir de offset. Despues hay que volver a llamar a init
+	void doFinal(byte[] tag, int offset) {
+		int c, g0, g1, g2, g3, g4, mascara;
+		long f;
+
+		// El ultimo bloque incompleto lleva un 1 despues del ultimo byte y ceros hasta completar los 16
+		if (cantPendiente > 0) {
+			pendiente[cantPendiente] = 1;
+			for (int i = cantPendiente + 1; i < TAM_BLOQUE; i++) {
+				pendiente[i] = 0;
+			}
+			procesarBloque(pendiente, 0, 0);
+			cantPendiente = 0;
+		}
+
+		// Propagamos todos los acarreos
+		c = h1 >>> 26; h1 &= MASCARA; h2 += c;
+		c = h2 >>> 26; h2 &= MASCARA; h3 += c;
+		c = h3 >>> 26; h3 &= MASCARA; h4 += c;
+		c = h4 >>> 26; h4 &= MASCARA; h0 += c * 5;
+		c = h0 >>> 26; h0 &= MASCARA; h1 += c;
+
+		// g = h + 5 - 2^130. Si no es negativo, h ya era mayor o igual que p y el resultado es g. La eleccion se hace sin saltos
+		g0 = h0 + 5; c = g0 >>> 26; g0 &= MASCARA;
+		g1 = h1 + c; c = g1 >>> 26; g1 &= MASCARA;
+		g2 = h2 + c; c = g2 >>> 26; g2 &= MASCARA;
+		g3 = h3 + c; c = g3 >>> 26; g3 &= MASCARA;
+		g4 = h4 + c - (1 << 26);
+
+		mascara = (g4 >>> 31) - 1;
+		h0 = (h0 & ~mascara) | (g0 & mascara);
+		h1 = (h1 & ~mascara) | (g1 & mascara);
+		h2 = (h2 & ~mascara) | (g2 & mascara);
+		h3 = (h3 & ~mascara) | (g3 & mascara);
+		h4 = (h4 & ~mascara) | (g4 & mascara);
+
+		// h modulo 2^128 en cuatro palabras de 32 bits, mas s
+		h0 = h0 | (h1 << 26);
+		h1 = (h1 >>> 6) | (h2 << 20);
+		h2 = (h2 >>> 12) | (h3 << 14);
+		h3 = (h3 >>> 18) | (h4 << 8);
+
+		f = (h0 & 0xffffffffL) + (pad0 & 0xffffffffL);
+		INT_ARRAY.set(tag, offset, (int) f);
+		f = (h1 & 0xffffffffL) + (pad1 & 0xffffffffL) + (f >>> 32);
+		INT_ARRAY.set(tag, offset + 4, (int) f);
+		f = (h2 & 0xffffffffL) + (pad2 & 0xffffffffL) + (f >>> 32);
+		INT_ARRAY.set(tag, offset + 8, (int) f);
+		f = (h3 & 0xffffffffL) + (pad3 & 0xffffffffL) + (f >>> 32);
+		INT_ARRAY.set(tag, offset + 12, (int) f);
+	}
+
+	// h = (h + bloque) * r modulo 2^130 - 5. bitAlto es 2^128 (en el limb 4) para los bloques completos y 0 para el ultimo incompleto
+	private void procesarBloque(byte[] m, int offset, int bitAlto) {
+		int t0 = (int) INT_ARRAY.get(m, offset);
+		int t1 = (int) INT_ARRAY.get(m, offset + 4);
+		int t2 = (int) INT_ARRAY.get(m, offset + 8);
+		int t3 = (int) INT_ARRAY.get(m, offset + 12);
+		long d0, d1, d2, d3, d4, c;
+
+		h0 += t0 & MASCARA;
+		h1 += ((t0 >>> 26) | (t1 << 6)) & MASCARA;
+		h2 += ((t1 >>> 20) | (t2 << 12)) & MASCARA;
+		h3 += ((t2 >>> 14) | (t3 << 18)) & MASCARA;
+		h4 += (t3 >>> 8) | bitAlto;
+
+		d0 = (long) h0 * r0 + (long) h1 * s4 + (long) h2 * s3 + (long) h3 * s2 + (long) h4 * s1;
+		d1 = (long) h0 * r1 + (long) h1 * r0 + (long) h2 * s4 + (long) h3 * s3 + (long) h4 * s2;
+		d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + (long) h3 * s4 + (long) h4 * s3;
+		d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + (long) h4 * s4;
+		d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+		// Reduccion parcial: los acarreos del limb 4 vuelven al 0 multiplicados por 5
+		c = d0 >>> 26; h0 = (int) d0 & MASCARA;
+		d1 += c; c = d1 >>> 26; h1 = (int) d1 & MASCARA;
+		d2 += c; c = d2 >>> 26; h2 = (int) d2 & MASCARA;
+		d3 += c; c = d3 >>> 26; h3 = (int) d3 & MASCARA;
+		d4 += c; c = d4 >>> 26; h4 = (int) d4 & MASCARA;
+		c = h0 + c * 5; h0 = (int) c & MASCARA;
+		h1 += (int) (c >>> 26);
+	}
+}
@@ -0,0 +1,14 @@
+package salsa20;
+
+/*
+ * Recibe el avance de una operacion larga (por ejemplo despues de cada franja de una imagen), para mostrarlo en una barra de progreso.
+ * Se llama desde el hilo que hace el trabajo, no desde el de la interfaz.
+ */
+@FunctionalInterface
+public interface ProgresoListener {
+
+	ProgresoListener NINGUNO = (procesados, total) -> {
+	};
+
+	void progreso(long bytesProcesados, long bytesTotales);
+}
@@ -0,0 +1,212 @@
+package salsa20;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Lee fila por fila las imagenes sin comprimir que genera RawStripWriter: BMP de 32 bits de arriba hacia abajo y PAM (P7) RGB o RGBA
+ * de 8 bits. El cuarto byte de un BMP de 32 bits solo es alfa si la cabecera declara una mascara de alfa (BITMAPV4HEADER o mas nueva
+ * con BI_BITFIELDS, como los que genera RawStripWriter); en un BMP con BI_RGB, como los de la mayoria de los programas, no tiene
+ * significado y muchas veces esta en cero, asi que se toma como opaco. Los BMP de abajo hacia arriba, con otra profundidad o con
+ * otras mascaras no se pueden recorrer en orden y quedan para ImageIO.
+ */
+class RawStripReader implements StripReader {
+
+	private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	// BITMAPFILEHEADER + BITMAPINFOHEADER, la parte comun a todas las versiones de la cabecera de un BMP
+	private static final int TAM_CABECERA_BMP_BASICA = 14 + 40;
+
+	// Largo maximo de la cabecera de un PAM, para no leer un archivo cualquiera entero buscando ENDHDR
+	private static final int MAX_CABECERA_PAM = 1024;
+
+	private final DataInputStream archivo;
+	private final FormatoImagen formato;
+	private final int ancho;
+	private final int alto;
+	private final int bytesPorPixel;
+
+	// Bits que se fuerzan en 1 en cada pixel de un BMP: 0xff000000 (opaco) si el archivo no tiene alfa, 0 si lo tiene
+	private final int alfaFijo;
+
+	// Una fila tal como esta en el archivo
+	private final byte[] fila;
+
+	private int filasLeidas;
+
+	private RawStripReader(DataInputStream archivo, FormatoImagen formato, int ancho, int alto, int bytesPorPixel, int alfaFijo) {
+		this.archivo = archivo;
+		this.formato = formato;
+		this.ancho = ancho;
+		this.alto = alto;
+		this.bytesPorPixel = bytesPorPixel;
+		this.alfaFijo = alfaFijo;
+		this.fila = new byte[ancho * bytesPorPixel];
+	}
+
+	// Abre el archivo y lee su cabecera. Devuelve null si no es un BMP o PAM soportado, para usar otro lector
+	static RawStripReader abrir(Path path) throws IOException {
+		DataInputStream archivo = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+		RawStripReader lector = null;
+
+		try {
+			int b0 = archivo.read(), b1 = archivo.read();
+
+			if (b0 == 'B' && b1 == 'M') {
+				lector = leerCabeceraBmp(archivo);
+			} else if (b0 == 'P' && b1 == '7') {
+				lector = leerCabeceraPam(archivo);
+			}
+			return lector;
+		} catch (EOFException e) {
+			return null;
+		} finally {
+			if (lector == null) {
+				archivo.close();
+			}
+		}
+	}
+
+	/*
+	 * Despues de "BM": el resto de BITMAPFILEHEADER y BITMAPINFOHEADER (o una version mas nueva, que empieza igual). Con BI_BITFIELDS
+	 * las mascaras de rojo, verde y azul siguen a los primeros 40 bytes de la cabecera de informacion (dentro de ella desde BITMAPV2INFOHEADER),
+	 * y la de alfa solo existe desde BITMAPV3INFOHEADER (56 bytes).
+	 */
+	private static RawStripReader leerCabeceraBmp(DataInputStream archivo) throws IOException {
+		byte[] cabecera = new byte[TAM_CABECERA_BMP_BASICA - 2];
+		byte[] mascaras = new byte[16];
+
+		archivo.readFully(cabecera);
+
+		int offsetDatos = (int) INT_LE.get(cabecera, 8);
+		int tamInfo = (int) INT_LE.get(cabecera, 12);
+		int ancho = (int) INT_LE.get(cabecera, 16);
+		int alto = (int) INT_LE.get(cabecera, 20);
+		int bits = (cabecera[26] & 0xff) | (cabecera[27] & 0xff) << 8;
+		int compresion = (int) INT_LE.get(cabecera, 28);
+		int tamMascaras = compresion == RawStripWriter.BI_BITFIELDS ? (tamInfo >= 56 ? 16 : 12) : 0;
+		int finCabecera = 14 + Math.max(tamInfo, 40 + tamMascaras);
+
+		if (tamInfo < 40 || bits != 32 || (compresion != 0 && compresion != RawStripWriter.BI_BITFIELDS) || alto >= 0 || ancho <= 0
+				|| offsetDatos < finCabecera) {
+			return null;
+		}
+		archivo.readFully(mascaras, 0, tamMascaras);
+
+		// Sin mascaras (BI_RGB) o sin mascara de alfa el cuarto byte no es alfa; cualquier otro orden de canales queda para ImageIO
+		int alfaFijo = RawStripWriter.MASCARA_ALFA;
+		if (tamMascaras > 0) {
+			if ((int) INT_LE.get(mascaras, 0) != RawStripWriter.MASCARA_ROJO || (int) INT_LE.get(mascaras, 4) != RawStripWriter.MASCARA_VERDE
+					|| (int) INT_LE.get(mascaras, 8) != RawStripWriter.MASCARA_AZUL) {
+				return null;
+			}
+			int mascaraAlfa = (int) INT_LE.get(mascaras, 12);
+			if (mascaraAlfa == RawStripWriter.MASCARA_ALFA) {
+				alfaFijo = 0;
+			} else if (mascaraAlfa != 0) {
+				return null;
+			}
+		}
+		archivo.skipNBytes(offsetDatos - TAM_CABECERA_BMP_BASICA - tamMascaras);
+		return new RawStripReader(archivo, FormatoImagen.BMP, ancho, -alto, 4, alfaFijo);
+	}
+
+	// Despues de "P7": lineas "CLAVE valor" hasta ENDHDR. Los comentarios empiezan con #
+	private static RawStripReader leerCabeceraPam(DataInputStream archivo) throws IOException {
+		StringBuilder linea = new StringBuilder();
+		int ancho = 0, alto = 0, profundidad = 0, maximo = 0, c;
+
+		for (int leidos = 0; leidos < MAX_CABECERA_PAM; leidos++) {
+			c = archivo.readUnsignedByte();
+			if (c != '\n') {
+				linea.append((char) c);
+				continue;
+			}
+
+			String[] partes = linea.toString().trim().split("\\s+");
+			linea.setLength(0);
+			try {
+				switch (partes[0]) {
+				case "WIDTH":
+					ancho = Integer.parseInt(partes[1]);
+					break;
+				case "HEIGHT":
+					alto = Integer.parseInt(partes[1]);
+					break;
+				case "DEPTH":
+					profundidad = Integer.parseInt(partes[1]);
+					break;
+				case "MAXVAL":
+					maximo = Integer.parseInt(partes[1]);
+					break;
+				case "ENDHDR":
+					if (ancho <= 0 || alto <= 0 || maximo != 255 || (profundidad != 3 && profundidad != 4)) {
+						return null;
+					}
+					return new RawStripReader(archivo, FormatoImagen.PAM, ancho, alto, profundidad, 0);
+				default:
+					// TUPLTYPE, comentarios y lineas vacias
+				}
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int ancho() {
+		return ancho;
+	}
+
+	@Override
+	public int alto() {
+		return alto;
+	}
+
+	@Override
+	public void leerFilas(byte[] pixels, int offset, int cantidad) throws IOException {
+		if (filasLeidas + cantidad > alto) {
+			throw new IllegalStateException("Se pidieron mas filas que el alto de la imagen");
+		}
+
+		for (int f = 0; f < cantidad; f++) {
+			int p = offset + f * ancho * 4;
+
+			archivo.readFully(fila);
+
+			// Lo inverso de RawStripWriter: B, G, R, A en little-endian o R, G, B, A rotado dan 0xAARRGGBB
+			if (formato == FormatoImagen.BMP) {
+				for (int i = 0; i < fila.length; i += 4) {
+					INT_BE.set(pixels, p + i, (int) INT_LE.get(fila, i) | alfaFijo);
+				}
+			} else if (bytesPorPixel == 4) {
+				for (int i = 0; i < fila.length; i += 4) {
+					INT_BE.set(pixels, p + i, Integer.rotateRight((int) INT_BE.get(fila, i), 8));
+				}
+			} else {
+				for (int j = 0; j < fila.length; j += 3) {
+					pixels[p] = (byte) 0xff;
+					pixels[p + 1] = fila[j];
+					pixels[p + 2] = fila[j + 1];
+					pixels[p + 3] = fila[j + 2];
+					p += 4;
+				}
+			}
+		}
+		filasLeidas += cantidad;
+	}
+
+	@Override
+	public void close() throws IOException {
+		archivo.close();
+	}
+}
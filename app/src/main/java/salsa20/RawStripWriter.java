@@ -0,0 +1,125 @@
+package salsa20;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Escribe una imagen sin comprimir (BMP de 32 bits o PAM RGBA) de a franjas de filas. La cabecera va al principio y despues las filas
+ * en orden, de arriba hacia abajo, asi que no hace falta volver atras ni conocer mas que el ancho y el alto. Cada pixel se reordena
+ * con una sola lectura y escritura de 4 bytes.
+ */
+class RawStripWriter implements StripWriter {
+
+	private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	// Tamaño de las cabeceras de archivo y de informacion de un BMP (BITMAPFILEHEADER + BITMAPV4HEADER)
+	static final int TAM_CABECERA_BMP = 14 + 108;
+
+	// BI_BITFIELDS: los canales salen de las mascaras de la cabecera
+	static final int BI_BITFIELDS = 3;
+
+	// Mascaras de rojo, verde, azul y alfa de un pixel B, G, R, A leido como entero little-endian
+	static final int MASCARA_ROJO = 0x00ff0000, MASCARA_VERDE = 0x0000ff00, MASCARA_AZUL = 0x000000ff, MASCARA_ALFA = 0xff000000;
+
+	// LCS_sRGB ('sRGB') como tipo de espacio de color
+	private static final int LCS_SRGB = 0x73524742;
+
+	private final OutputStream out;
+	private final int ancho;
+	private final int alto;
+	private final FormatoImagen formato;
+
+	// Una fila ya en el orden de bytes del formato
+	private final byte[] fila;
+
+	private int filasEscritas;
+
+	RawStripWriter(OutputStream out, int ancho, int alto, FormatoImagen formato) throws IOException {
+		if (formato == FormatoImagen.PNG) {
+			throw new IllegalArgumentException("PNG se escribe con PngStripWriter");
+		}
+		this.out = out;
+		this.ancho = ancho;
+		this.alto = alto;
+		this.formato = formato;
+		this.fila = new byte[ancho * 4];
+
+		if (formato == FormatoImagen.BMP) {
+			escribirCabeceraBmp();
+		} else {
+			escribirCabeceraPam();
+		}
+	}
+
+	@Override
+	public void escribirFilas(byte[] pixels, int offset, int filas) throws IOException {
+		if (filasEscritas + filas > alto) {
+			throw new IllegalStateException("Se escribieron mas filas que el alto de la imagen");
+		}
+
+		for (int f = 0; f < filas; f++) {
+			int p = offset + f * ancho * 4;
+
+			// A, R, G, B leido como entero big-endian es 0xAARRGGBB: en little-endian queda B, G, R, A (BMP) y rotado queda R, G, B, A (PAM)
+			if (formato == FormatoImagen.BMP) {
+				for (int i = 0; i < fila.length; i += 4) {
+					INT_LE.set(fila, i, (int) INT_BE.get(pixels, p + i));
+				}
+			} else {
+				for (int i = 0; i < fila.length; i += 4) {
+					INT_BE.set(fila, i, Integer.rotateLeft((int) INT_BE.get(pixels, p + i), 8));
+				}
+			}
+			out.write(fila);
+		}
+		filasEscritas += filas;
+	}
+
+	@Override
+	public void terminar() throws IOException {
+		if (filasEscritas != alto) {
+			throw new IllegalStateException("Faltan filas: se escribieron " + filasEscritas + " de " + alto);
+		}
+	}
+
+	/*
+	 * BITMAPFILEHEADER y BITMAPV4HEADER de 32 bits por pixel con BI_BITFIELDS y mascara de alfa explicita: con BI_RGB el cuarto byte
+	 * no tiene significado y los lectores lo ignoran o lo toman como transparente. El alto va negativo para que las filas vayan
+	 * de arriba hacia abajo, y como cada fila ocupa un multiplo de 4 bytes no hay relleno.
+	 */
+	private void escribirCabeceraBmp() throws IOException {
+		byte[] cabecera = new byte[TAM_CABECERA_BMP];
+		long tamDatos = (long) ancho * alto * 4;
+
+		cabecera[0] = 'B';
+		cabecera[1] = 'M';
+		INT_LE.set(cabecera, 2, (int) Math.min(TAM_CABECERA_BMP + tamDatos, 0xffffffffL));
+		INT_LE.set(cabecera, 10, TAM_CABECERA_BMP);
+		INT_LE.set(cabecera, 14, TAM_CABECERA_BMP - 14);
+		INT_LE.set(cabecera, 18, ancho);
+		INT_LE.set(cabecera, 22, -alto);
+		cabecera[26] = 1; // planos
+		cabecera[28] = 32; // bits por pixel
+		INT_LE.set(cabecera, 30, BI_BITFIELDS);
+		INT_LE.set(cabecera, 34, (int) Math.min(tamDatos, 0xffffffffL));
+		INT_LE.set(cabecera, 38, 2835); // 72 ppp
+		INT_LE.set(cabecera, 42, 2835);
+		INT_LE.set(cabecera, 54, MASCARA_ROJO);
+		INT_LE.set(cabecera, 58, MASCARA_VERDE);
+		INT_LE.set(cabecera, 62, MASCARA_AZUL);
+		INT_LE.set(cabecera, 66, MASCARA_ALFA);
+		// Los extremos y la gamma (hasta el final) quedan en cero, no se usan con sRGB
+		INT_LE.set(cabecera, 70, LCS_SRGB);
+		out.write(cabecera);
+	}
+
+	private void escribirCabeceraPam() throws IOException {
+		String cabecera = "P7\nWIDTH " + ancho + "\nHEIGHT " + alto + "\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+		out.write(cabecera.getBytes(StandardCharsets.US_ASCII));
+	}
+}
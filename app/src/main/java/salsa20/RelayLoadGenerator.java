@@ -0,0 +1,260 @@
+package salsa20;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Generador de carga para Salsa20Relay. Abre muchas conexiones a la vez, cada una en su propio hilo virtual, y en cada una manda
+ * tramos de bytes al azar, espera el eco y verifica que vuelva igual. Mide el tiempo de ida y vuelta de cada tramo y el throughput total.
+ *
+ * Sin --destino se arma todo en localhost dentro del mismo proceso: un servidor de eco, un relay en modo descifrar delante de el y
+ * un relay en modo cifrar delante de ese, y las conexiones van al relay que cifra. Asi se prueba de punta a punta que lo que sale
+ * cifrado de un relay el otro lo descifra bien, en los dos sentidos. Con --destino se le pega a un servicio que ya este corriendo
+ * y tiene que devolver lo que recibe (por ejemplo un par de relays delante de un servidor de eco).
+ *
+ *   java -cp salsa20.jar salsa20.RelayLoadGenerator [--conexiones <n>] [--tramos <n>] [--tamanio <bytes>] [--destino host:puerto]
+ *
+ * Con miles de conexiones en localhost cada una usa seis sockets (cliente, dos por relay y el eco): puede hacer falta subir el limite
+ * de archivos abiertos (ulimit -n).
+ */
+public class RelayLoadGenerator {
+
+	private static final String USO = "Uso: RelayLoadGenerator [--conexiones <n>] [--tramos <n>] [--tamanio <bytes>] [--destino host:puerto]";
+
+	// Key fija para los relays de prueba
+	private static final byte[] KEY_PRUEBA = "12345678901234567890123456789012".getBytes();
+
+	// Tiempo maximo que una conexion espera a que esten abiertas todas las demas antes de empezar a mandar datos
+	private static final long ESPERA_INICIO_SEGUNDOS = 60;
+
+	private final InetSocketAddress destino;
+	private final int conexiones;
+	private final int tramos;
+	private final int tamanio;
+
+	private final LongAdder bytesEco = new LongAdder();
+	private final AtomicInteger errores = new AtomicInteger();
+	private final Histograma idaYVuelta = new Histograma();
+
+	RelayLoadGenerator(InetSocketAddress destino, int conexiones, int tramos, int tamanio) {
+		this.destino = destino;
+		this.conexiones = conexiones;
+		this.tramos = tramos;
+		this.tamanio = tamanio;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int conexiones = 1000, tramos = 16, tamanio = 4096;
+		InetSocketAddress destino = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 >= args.length) {
+				salirConError(USO);
+			}
+			switch (args[i]) {
+			case "--conexiones":
+				conexiones = Integer.parseInt(args[++i]);
+				break;
+			case "--tramos":
+				tramos = Integer.parseInt(args[++i]);
+				break;
+			case "--tamanio":
+				tamanio = Integer.parseInt(args[++i]);
+				break;
+			case "--destino":
+				destino = Salsa20Relay.direccion(args[++i], null);
+				break;
+			default:
+				salirConError(USO);
+			}
+		}
+		if (conexiones <= 0 || tramos <= 0 || tamanio <= 0) {
+			salirConError(USO);
+		}
+
+		if (destino != null) {
+			System.exit(new RelayLoadGenerator(destino, conexiones, tramos, tamanio).ejecutar() ? 0 : 1);
+		}
+
+		// Servidor de eco y dos relays en localhost: cliente -> relay cifrar -> relay descifrar -> eco
+		InetSocketAddress local = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		Salsa20Key key = new Salsa20Key(KEY_PRUEBA);
+
+		try (ServidorEco eco = new ServidorEco(local);
+				Salsa20Relay descifra = new Salsa20Relay(key, false, eco.direccion());
+				Salsa20Relay cifra = new Salsa20Relay(key, true, new InetSocketAddress(local.getAddress(), iniciar(descifra, local)))) {
+			iniciar(cifra, local);
+
+			boolean ok = new RelayLoadGenerator(new InetSocketAddress(local.getAddress(), cifra.puerto()), conexiones, tramos, tamanio)
+					.ejecutar();
+			for (Salsa20Relay relay : List.of(cifra, descifra)) {
+				Histograma h = relay.latenciaTramos();
+				System.out.printf("Relay %s: %d conexiones, %d tramos, p50 %.1f us, p99 %.1f us%n", relay == cifra ? "cifrar" : "descifrar",
+						relay.conexionesTotales(), h.cantidad(), h.percentilNanos(0.5) / 1e3, h.percentilNanos(0.99) / 1e3);
+			}
+			System.exit(ok ? 0 : 1);
+		}
+	}
+
+	private static int iniciar(Salsa20Relay relay, InetSocketAddress local) throws IOException {
+		relay.iniciar(local);
+		return relay.puerto();
+	}
+
+	// Corre todas las conexiones y muestra el resultado. Devuelve true si todos los ecos volvieron bien
+	boolean ejecutar() throws InterruptedException {
+		ExecutorService hilos = VirtualThreads.porTarea("salsa20-carga");
+		CountDownLatch conectadas = new CountDownLatch(conexiones);
+		List<Future<?>> tareas = new ArrayList<>(conexiones);
+		long inicio = System.nanoTime();
+
+		try {
+			for (int i = 0; i < conexiones; i++) {
+				tareas.add(hilos.submit(() -> {
+					conexion(conectadas);
+					return null;
+				}));
+			}
+			for (Future<?> tarea : tareas) {
+				try {
+					tarea.get();
+				} catch (ExecutionException e) {
+					if (errores.incrementAndGet() <= 5) {
+						System.err.println("Error en una conexion: " + e.getCause());
+					}
+				}
+			}
+		} finally {
+			hilos.shutdownNow();
+		}
+
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		System.out.printf("%d conexiones (%s), %d errores, %.1f MB de eco en %.2f s (%.1f MB/s)%n", conexiones,
+				VirtualThreads.disponibles() ? "hilos virtuales" : "hilos de plataforma", errores.get(), bytesEco.sum() / 1e6, segundos,
+				bytesEco.sum() / 1e6 / Math.max(segundos, 1e-9));
+		System.out.printf("Ida y vuelta por tramo de %d bytes: %d tramos, p50 %.1f us, p99 %.1f us, max %.1f us%n", tamanio,
+				idaYVuelta.cantidad(), idaYVuelta.percentilNanos(0.5) / 1e3, idaYVuelta.percentilNanos(0.99) / 1e3,
+				idaYVuelta.maximoNanos() / 1e3);
+		return errores.get() == 0;
+	}
+
+	// Una conexion: espera a que las demas esten abiertas para que la carga sea concurrente y despues manda los tramos
+	private void conexion(CountDownLatch conectadas) throws IOException, InterruptedException {
+		byte[] enviado = new byte[tamanio];
+		byte[] recibido = new byte[tamanio];
+		long inicio;
+
+		try (Socket socket = new Socket()) {
+			socket.setTcpNoDelay(true);
+			socket.connect(destino);
+			conectadas.countDown();
+			conectadas.await(ESPERA_INICIO_SEGUNDOS, TimeUnit.SECONDS);
+
+			InputStream entrada = socket.getInputStream();
+			OutputStream salida = socket.getOutputStream();
+
+			for (int t = 0; t < tramos; t++) {
+				ThreadLocalRandom.current().nextBytes(enviado);
+
+				inicio = System.nanoTime();
+				salida.write(enviado);
+				if (entrada.readNBytes(recibido, 0, tamanio) != tamanio) {
+					throw new IOException("La conexion se cerro antes de devolver el eco");
+				}
+				idaYVuelta.registrar(System.nanoTime() - inicio, tamanio);
+
+				if (!Arrays.equals(enviado, recibido)) {
+					throw new IOException("El eco no coincide con lo enviado");
+				}
+				bytesEco.add(tamanio);
+			}
+
+			// Al cerrar la escritura el eco (a traves de los relays) tiene que cerrar tambien
+			socket.shutdownOutput();
+			if (entrada.read() != -1) {
+				throw new IOException("Llegaron bytes de mas despues del eco");
+			}
+		} finally {
+			// Si fallo antes de conectar, las demas no tienen que esperarla
+			if (conectadas.getCount() > 0) {
+				conectadas.countDown();
+			}
+		}
+	}
+
+	/*
+	 * Servidor de eco en localhost: devuelve cada byte que recibe y cierra la escritura al final del flujo.
+	 * Cada conexion corre en su propio hilo virtual.
+	 */
+	static final class ServidorEco implements Closeable {
+		private final ServerSocket servidor;
+		private final ExecutorService hilos = VirtualThreads.porTarea("salsa20-eco");
+
+		ServidorEco(InetSocketAddress direccion) throws IOException {
+			servidor = new ServerSocket();
+			servidor.bind(direccion, 4096);
+			VirtualThreads.hilosDaemon("salsa20-eco-aceptar").newThread(this::aceptar).start();
+		}
+
+		InetSocketAddress direccion() {
+			return new InetSocketAddress(servidor.getInetAddress(), servidor.getLocalPort());
+		}
+
+		private void aceptar() {
+			try {
+				while (true) {
+					Socket socket = servidor.accept();
+					hilos.execute(() -> eco(socket));
+				}
+			} catch (IOException e) {
+				// Se cerro el servidor
+			}
+		}
+
+		private void eco(Socket socket) {
+			byte[] buffer = new byte[8192];
+			int leidos;
+
+			try (socket) {
+				socket.setTcpNoDelay(true);
+				InputStream entrada = socket.getInputStream();
+				OutputStream salida = socket.getOutputStream();
+
+				while ((leidos = entrada.read(buffer)) >= 0) {
+					salida.write(buffer, 0, leidos);
+				}
+				socket.shutdownOutput();
+			} catch (IOException e) {
+				// El cliente corto la conexion
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			servidor.close();
+			hilos.shutdownNow();
+		}
+	}
+
+	private static void salirConError(String mensaje) {
+		System.err.println(mensaje);
+		System.exit(2);
+	}
+}
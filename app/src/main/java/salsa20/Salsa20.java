@@ -1,192 +1,197 @@
 package salsa20;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
-import java.nio.*;
 
 /*
- * Primero, se proporciona el textoPlano y la clave que debe ser de 32 bytes. Invertir el textoPlano
+ * Primero, se proporciona el textoPlano y la clave que debe ser de 32 bytes
  * Segundo, inicializar la matriz de estado con la clave, los nonce, la constante y el offset
  * Tercero, Se inicia un bucle que se ejecuta mientras queden suficientes bytes de texto plano para formar un bloque completo (64 bytes).
- * Cuarto, en cada iteracion del bucle se genera una matriz encriptadora con el numero de bloque actual. Se usa para cifrar el bloque de texto plano
- * Quinto, se realiza una operacion XOR con la matriz encriptadora y los bytes del bloque. Aca es donde se cifra
- * Sexto, se almacena el bloque en el array resultado
+ * Cuarto, en cada iteracion del bucle se genera un bloque de keystream con el numero de bloque actual. Se usa para cifrar el bloque de texto plano
+ * Quinto, se realiza una operacion XOR entre el keystream y los bytes del bloque. Aca es donde se cifra
+ * Sexto, el resultado del XOR se escribe directamente en el array resultado
  * Septimo, una vez terminado con los bucles, se manejan los bytes restantes en un bloque final
  * Octavo, se devuelve el criptograma
  */
 
 public class Salsa20 {
 
-	// Salsa20 tiene implementa 20 rondas donde realiza operaciones de permutacion y difusion
-	private final int RONDAS = 20;
-	private final int TAM_BLOQUE = 64;
+	// Salsa20 tiene implementa 20 rondas donde realiza operaciones de permutacion y difusion. Las variantes reducidas
+	// Salsa20/12 (perfil de eSTREAM) y Salsa20/8 son mas rapidas y con menos margen de seguridad
+	static final int RONDAS = 20;
+	static final int TAM_BLOQUE = 64;
 
 	// "expand 32-byte k" en ASCII, cada numero es la representación en decimal
-	private final byte[] CONSTANTE = { 101, 120, 112, 97, 110, 100, 32, 51, 50, 45, 98, 121, 116, 101, 32, 107 };
+	static final byte[] CONSTANTE = { 101, 120, 112, 97, 110, 100, 32, 51, 50, 45, 98, 121, 116, 101, 32, 107 };
 
-	/* 
-	 * Representa a la matriz de estado. Se inicializa con valores derivados de la clave, el nonce, el offset y una constante. 
-	 * Se somete a varias rondas de operaciones (como rotación y de XOR) para generar el flujo de bytes pseudoaleatorios que se combinaran con los datos de entrada
-	 */
-	private int[][] matrizInicial = new int[4][4];
+	// Nonce que usa encriptar: dos enteros derivados de un Random con semilla 23, guardados en little-endian
+	static final byte[] NONCE = generarNonce();
 
-	/* 
-	 * Representa a la matriz de salida. Usada para almacenar los datos de salida del cifrado. Cada vez que se necesita una salida de 64 bytes (o TAM_BLOQUE) 
-	 * se toma una copia de estra matriz y se aplica un XOR con la matrizInicial para generar los bytes de salida
-	 */
-	private int[][] matrizEncriptadora = new int[4][4];
+	private static byte[] generarNonce() {
+		byte[] nonce = new byte[8];
+		Random r = new Random(23);
+		guardarCelda(nonce, 0, r.nextInt(Integer.MAX_VALUE));
+		guardarCelda(nonce, 4, r.nextInt(Integer.MAX_VALUE));
+		return nonce;
+	}
 
-	/* Almacena resultados temporales mientras suceden las rondas de operacion */
-	private int[][] matrizAux = new int[4][4];
+	// Rondas que usan los metodos de esta clase (20, 12 u 8)
+	private final int rondas;
 
-	 /* Metodo que se ejecuta una sola vez. Inicializa la matriz inicial usando la key (parametro), dos nonce, una constante y el offset.
-	  * El offset o contador se incrementa en cada iteración del cifrado para generar secuencias de bytes cifrados distintos y únicos.
-	  */
-	private void generarMatrizInicial(byte[] key) {
-		int nonce1, nonce2;
-		Random r = new Random(23);
-		nonce1 = r.nextInt(Integer.MAX_VALUE);
-		nonce2 = r.nextInt(Integer.MAX_VALUE);
+	public Salsa20() {
+		this(RONDAS);
+	}
+
+	public Salsa20(int rondas) {
+		this.rondas = validarRondas(rondas);
+	}
+
+	// Devuelve rondas si es una de las variantes estandar (Salsa20/8, Salsa20/12 o Salsa20/20)
+	static int validarRondas(int rondas) {
+		if (rondas != 8 && rondas != 12 && rondas != 20) {
+			throw new IllegalArgumentException("La cantidad de rondas debe ser 8, 12 o 20");
+		}
+		return rondas;
+	}
 
+	 /* Inicializa la matriz de estado (guardada en forma plana, la celda [i][j] es la posicion 4 * i + j) usando la key, los dos nonce,
+	  * una constante y el offset. El offset o contador se incrementa en cada iteración del cifrado para generar secuencias de bytes cifrados distintos y únicos.
+	  */
+	static void generarMatrizInicial(int[] estado, byte[] key, byte[] nonce) {
 		// Generamos la matriz (agregamos la key, la constante, los nonce y el offset)
-		matrizInicial[0][0] = cargarCelda(CONSTANTE, 0);
-		matrizInicial[0][1] = cargarCelda(key, 0);
-		matrizInicial[0][2] = cargarCelda(key, 4);
-		matrizInicial[0][3] = cargarCelda(key, 8);
-		matrizInicial[1][0] = cargarCelda(key, 12);
-		matrizInicial[1][1] = cargarCelda(CONSTANTE, 4);
-		matrizInicial[1][2] = nonce1;
-		matrizInicial[1][3] = nonce2;
+		estado[0] = cargarCelda(CONSTANTE, 0);
+		estado[1] = cargarCelda(key, 0);
+		estado[2] = cargarCelda(key, 4);
+		estado[3] = cargarCelda(key, 8);
+		estado[4] = cargarCelda(key, 12);
+		estado[5] = cargarCelda(CONSTANTE, 4);
+		estado[6] = cargarCelda(nonce, 0);
+		estado[7] = cargarCelda(nonce, 4);
 		// Para una primera vez, el contador inicia en 0. luego, por cada bloque de 64B del texto plano, este contador incrementará en 1
-		matrizInicial[2][0] = 0;
-		matrizInicial[2][1] = 0;
-		matrizInicial[2][2] = cargarCelda(CONSTANTE, 8);
-		matrizInicial[2][3] = cargarCelda(key, 16);
-		matrizInicial[3][0] = cargarCelda(key, 20);
-		matrizInicial[3][1] = cargarCelda(key, 24);
-		matrizInicial[3][2] = cargarCelda(key, 28);
-		matrizInicial[3][3] = cargarCelda(CONSTANTE, 12);
+		estado[8] = 0;
+		estado[9] = 0;
+		estado[10] = cargarCelda(CONSTANTE, 8);
+		estado[11] = cargarCelda(key, 16);
+		estado[12] = cargarCelda(key, 20);
+		estado[13] = cargarCelda(key, 24);
+		estado[14] = cargarCelda(key, 28);
+		estado[15] = cargarCelda(CONSTANTE, 12);
 	}
 
-	/* 
-	 * Método responsable de calcular y generar la matriz de estado que se utilizará para encriptar los datos en cada ronda del cifrado. 
+	/*
+	 * Nucleo de Salsa20. Toma el estado de entrada (que no se modifica), ejecuta las rondas sobre 16 variables locales y escribe el bloque
+	 * de keystream resultante (rondas + estado de entrada) en salida a partir de offset, en formato little-endian. No reserva memoria.
+	 * rondas tiene que ser par: cada vuelta del bucle es una ronda de columnas y una de filas.
 	 */
-	private void generarMatrizEncriptadora(byte[] numeroBloque) {
-		int i, j;
-		// Se debe cambiar el valor del contador (offset) que esta embebido en la matriz inicial
-		matrizInicial[2][0] = cargarCelda(numeroBloque, 0);
-		matrizInicial[2][1] = cargarCelda(numeroBloque, 4);
-		matrizAux = matrizInicial.clone();
-
-		// Ejecutamos las 20 rondas donde se realizan operaciones de rotacion y XOR
-		for (i = 0; i < RONDAS; i += 2) {
-			// Los parametros representan las coordenadas de las cuatro celdas que se estan procesando. Cada par de coordenadas corresponde a una celda
-			quarterRound(0, 0, 1, 0, 2, 0, 3, 0);// COLUMNA 1
-			quarterRound(1, 1, 2, 1, 3, 1, 0, 1);// COLUMNA 2
-			quarterRound(2, 2, 3, 2, 0, 2, 1, 2);// COLUMNA 3
-			quarterRound(3, 3, 0, 3, 1, 3, 2, 3);// COLUMNA 4
-
-			quarterRound(0, 0, 0, 1, 0, 2, 0, 3);// FILA 1
-			quarterRound(1, 1, 1, 2, 1, 3, 1, 0);// FILA 2
-			quarterRound(2, 2, 2, 3, 2, 0, 2, 1);// FILA 3
-			quarterRound(3, 3, 3, 0, 3, 1, 3, 2);// FILA 4
+	static void generarBloque(int[] entrada, int rondas, byte[] salida, int offset) {
+		int x0 = entrada[0], x1 = entrada[1], x2 = entrada[2], x3 = entrada[3];
+		int x4 = entrada[4], x5 = entrada[5], x6 = entrada[6], x7 = entrada[7];
+		int x8 = entrada[8], x9 = entrada[9], x10 = entrada[10], x11 = entrada[11];
+		int x12 = entrada[12], x13 = entrada[13], x14 = entrada[14], x15 = entrada[15];
+
+		// Ejecutamos las rondas donde se realizan operaciones de rotacion y XOR. Cada grupo de cuatro lineas es un quarterRound
+		for (int i = 0; i < rondas; i += 2) {
+			// COLUMNA 1
+			x4 ^= Integer.rotateLeft(x0 + x12, 7);
+			x8 ^= Integer.rotateLeft(x4 + x0, 9);
+			x12 ^= Integer.rotateLeft(x8 + x4, 13);
+			x0 ^= Integer.rotateLeft(x12 + x8, 18);
+			// COLUMNA 2
+			x9 ^= Integer.rotateLeft(x5 + x1, 7);
+			x13 ^= Integer.rotateLeft(x9 + x5, 9);
+			x1 ^= Integer.rotateLeft(x13 + x9, 13);
+			x5 ^= Integer.rotateLeft(x1 + x13, 18);
+			// COLUMNA 3
+			x14 ^= Integer.rotateLeft(x10 + x6, 7);
+			x2 ^= Integer.rotateLeft(x14 + x10, 9);
+			x6 ^= Integer.rotateLeft(x2 + x14, 13);
+			x10 ^= Integer.rotateLeft(x6 + x2, 18);
+			// COLUMNA 4
+			x3 ^= Integer.rotateLeft(x15 + x11, 7);
+			x7 ^= Integer.rotateLeft(x3 + x15, 9);
+			x11 ^= Integer.rotateLeft(x7 + x3, 13);
+			x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+			// FILA 1
+			x1 ^= Integer.rotateLeft(x0 + x3, 7);
+			x2 ^= Integer.rotateLeft(x1 + x0, 9);
+			x3 ^= Integer.rotateLeft(x2 + x1, 13);
+			x0 ^= Integer.rotateLeft(x3 + x2, 18);
+			// FILA 2
+			x6 ^= Integer.rotateLeft(x5 + x4, 7);
+			x7 ^= Integer.rotateLeft(x6 + x5, 9);
+			x4 ^= Integer.rotateLeft(x7 + x6, 13);
+			x5 ^= Integer.rotateLeft(x4 + x7, 18);
+			// FILA 3
+			x11 ^= Integer.rotateLeft(x10 + x9, 7);
+			x8 ^= Integer.rotateLeft(x11 + x10, 9);
+			x9 ^= Integer.rotateLeft(x8 + x11, 13);
+			x10 ^= Integer.rotateLeft(x9 + x8, 18);
+			// FILA 4
+			x12 ^= Integer.rotateLeft(x15 + x14, 7);
+			x13 ^= Integer.rotateLeft(x12 + x15, 9);
+			x14 ^= Integer.rotateLeft(x13 + x12, 13);
+			x15 ^= Integer.rotateLeft(x14 + x13, 18);
 		}
 
-		// Almaceno el resultado entre la auxiliar y la inicial en la matrizEncriptadora
-		for (i = 0; i < 4; i++) {
-			for (j = 0; j < 4; j++) {
-				matrizEncriptadora[i][j] = matrizAux[i][j] + matrizInicial[i][j];
-			}
+		// Sumamos el estado de entrada al resultado de las rondas y lo guardamos en la salida
+		guardarCelda(salida, offset, x0 + entrada[0]);
+		guardarCelda(salida, offset + 4, x1 + entrada[1]);
+		guardarCelda(salida, offset + 8, x2 + entrada[2]);
+		guardarCelda(salida, offset + 12, x3 + entrada[3]);
+		guardarCelda(salida, offset + 16, x4 + entrada[4]);
+		guardarCelda(salida, offset + 20, x5 + entrada[5]);
+		guardarCelda(salida, offset + 24, x6 + entrada[6]);
+		guardarCelda(salida, offset + 28, x7 + entrada[7]);
+		guardarCelda(salida, offset + 32, x8 + entrada[8]);
+		guardarCelda(salida, offset + 36, x9 + entrada[9]);
+		guardarCelda(salida, offset + 40, x10 + entrada[10]);
+		guardarCelda(salida, offset + 44, x11 + entrada[11]);
+		guardarCelda(salida, offset + 48, x12 + entrada[12]);
+		guardarCelda(salida, offset + 52, x13 + entrada[13]);
+		guardarCelda(salida, offset + 56, x14 + entrada[14]);
+		guardarCelda(salida, offset + 60, x15 + entrada[15]);
+	}
+
+	/*
+	 * HSalsa20: las mismas rondas que el nucleo pero sin sumar la entrada al final. Lo usa XSalsa20 para derivar una subkey a partir de la key
+	 * y los primeros 16 bytes del nonce, que van en las celdas 6 a 9. La subkey son las celdas 0, 5, 10, 15, 6, 7, 8 y 9.
+	 * Reusa las rondas de generarBloque y le resta la entrada a cada celda del bloque, asi que x queda con el estado despues de las rondas.
+	 */
+	static void hsalsa20(int[] x, int rondas) {
+		byte[] bloque = new byte[TAM_BLOQUE];
+
+		generarBloque(x, rondas, bloque, 0);
+		for (int i = 0; i < 16; i++) {
+			x[i] = cargarCelda(bloque, 4 * i) - x[i];
 		}
 	}
 
 	// Metodo para implementar el proceso de cifrado a partir de un textoPlano y una key
 	public byte[] encriptar(byte[] textoPlano, byte[] key) {
-		int numeroBloque = 0;
-		int cantBytesTextoPlano = textoPlano.length;
-		int i, j, k;
-		byte[] block = new byte[TAM_BLOQUE];
-		byte[] bloqueAux = new byte[4];
-		byte[] criptograma;
-		
-		/* 
-		 * Salsa20 asume que los datos de entrada están en formato "little-endian", donde los bytes menos significativos se almacenan en las primeras posiciones de la secuencia de bytes.
-		 * Como Java almacena en formato "big-endian" por defecto, donde los bytes más significativos se almacenan en las primeras posiciones invertimos el textoPlano para poder aplicar el cifrado
-		 */
-		ByteBuffer buffer = ByteBuffer.wrap(textoPlano.clone());
-		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		textoPlano = buffer.array();
-
-		// Generamos por primera vez la matriz inicial, con el numero de bloque en 0
-		generarMatrizInicial(key);
-		criptograma = new byte[cantBytesTextoPlano];
-
-		// Aca se realiza el XOR
-		while (cantBytesTextoPlano >= TAM_BLOQUE) {
-
-			// Generamos la matriz encriptadora para esta pasada
-			generarMatrizEncriptadora(ByteBuffer.allocate(8).putInt(numeroBloque).array());
-
-			// Dividimos el texto plano, cargando un bloque de 64 Bytes
-			for (i = 0; i < 64; i++) {
-				block[i] = textoPlano[(int) (numeroBloque * 64) + i];
-			}
-
-			// Hacemos el XOR con el texto plano
-			for (i = 0; i < 4; i++) {
-				for (j = 0; j < 4; j++) {
-					bloqueAux = ByteBuffer.allocate(4).putInt(matrizEncriptadora[i][j]).array();
-
-					for (k = 0; k < 4; k++) {
-						block[k + (i * 16 + j * 4)] ^= bloqueAux[k];
-					}
-				}
-			}
-
-			// Incorporamos el bloque cifrado al criptograma
-			for (i = 0; i < TAM_BLOQUE; i++) {
-				criptograma[i + (int) (numeroBloque * TAM_BLOQUE)] = block[i];
-			}
-
-			numeroBloque++;
-			cantBytesTextoPlano -= TAM_BLOQUE;
-		}
+		byte[] criptograma = new byte[textoPlano.length];
 
-		
-		// Esto se realiza en caso en que que la longitud del texto plano no es múltiplo de 6.
-		if (cantBytesTextoPlano != 0) {
-			
-			int aux = cantBytesTextoPlano;
+		// Ciframos todo el texto plano con la key y el nonce fijo, usando el cifrador en flujo del hilo actual
+		new Salsa20Key(key, rondas).encrypt(NONCE, textoPlano, 0, textoPlano.length, criptograma, 0);
 
-			// Generamos la matriz encriptadora para la última pasada
-			generarMatrizEncriptadora(ByteBuffer.allocate(8).putInt(numeroBloque).array());
-
-			// Cargamos los n úlitmos bytes que faltan cifrar
-			for (i = 0; i < cantBytesTextoPlano; i++) {
-				block[i] = textoPlano[(int) (numeroBloque * 64) + i];
-			}
-
-			// Hacemos el XOR con el texto plano
-			for (i = 0; i < 4; i++) {
-				for (j = 0; j < 4; j++) {
-					bloqueAux = ByteBuffer.allocate(4).putInt(matrizEncriptadora[i][j]).array();
-
-					for (k = 0; k < 4; k++) {
-
-						if (cantBytesTextoPlano > 0) {
-							block[k + (i * 16 + j * 4)] ^= bloqueAux[k];
-							cantBytesTextoPlano--;
-						}
-					}
-				}
-			}
+		return criptograma;
+	}
 
-			// Incorporamos el bloque cifrado al criptograma
-			for (i = 0; i < aux; i++) {
-				criptograma[i + (int) (numeroBloque * TAM_BLOQUE)] = block[i];
-			}
+	/*
+	 * Cifra los bytes entre la posicion y el limite de entrada y los escribe en salida, sin pasar por un byte[] intermedio.
+	 * Los buffers pueden ser heap o directos, y si se pasa el mismo buffer dos veces se cifra en el lugar.
+	 */
+	public void encriptar(ByteBuffer entrada, ByteBuffer salida, byte[] key) {
+		Salsa20Cipher cifrador = new Salsa20Cipher();
+		cifrador.init(key, NONCE, rondas);
+		cifrador.update(entrada, salida);
+	}
 
-		}
+	// Igual que encriptar pero repartiendo los bloques entre los nucleos disponibles. El resultado es el mismo
+	public byte[] encriptarParalelo(byte[] textoPlano, byte[] key) {
+		byte[] criptograma = new byte[textoPlano.length];
 
+		new Salsa20Parallel().encryptParallel(new Salsa20Key(key, rondas), NONCE, textoPlano, 0, textoPlano.length, criptograma, 0);
 		return criptograma;
 	}
 
@@ -194,25 +199,20 @@ public class Salsa20 {
 		return encriptar(criptograma, key);
 	}
 
-	private int rotateL(int a, int b) {
-		return (a << b) | (a >>> (32 - b)); // a<<b --> a= a.2^b
+	// Descifra solo los length bytes que empiezan en offset, sin procesar los anteriores
+	public byte[] desencriptarRango(byte[] criptograma, byte[] key, int offset, int length) {
+		return new Salsa20Key(key, rondas).decryptRange(criptograma, NONCE, offset, length);
 	}
 
-	/*
-	 * funcion de rotación que hace operaciones ARX, XOR rotate sobre 4 elementos.
-	 */
-	private void quarterRound(int xa, int ya, int xb, int yb, int xc, int yc, int xd, int yd) {
-
-		matrizAux[xb][yb] ^= rotateL(matrizAux[xa][ya] + matrizAux[xd][yd], 7);
-		matrizAux[xc][yc] ^= rotateL(matrizAux[xb][yb] + matrizAux[xa][ya], 9);
-		matrizAux[xd][yd] ^= rotateL(matrizAux[xc][yc] + matrizAux[xb][yb], 13);
-		matrizAux[xa][ya] ^= rotateL(matrizAux[xd][yd] + matrizAux[xc][yc], 18);
-
-	}
-
-
-	private int cargarCelda(byte[] x, int offset) {
+	static int cargarCelda(byte[] x, int offset) {
 		return ((int) (x[offset]) & 0xff) | ((((int) (x[offset + 1]) & 0xff)) << 8)
 				| ((((int) (x[offset + 2]) & 0xff)) << 16) | ((((int) (x[offset + 3]) & 0xff)) << 24);
 	}
-}
+
+	static void guardarCelda(byte[] x, int offset, int valor) {
+		x[offset] = (byte) valor;
+		x[offset + 1] = (byte) (valor >>> 8);
+		x[offset + 2] = (byte) (valor >>> 16);
+		x[offset + 3] = (byte) (valor >>> 24);
+	}
+}
\ No newline at end of file
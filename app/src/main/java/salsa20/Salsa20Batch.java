@@ -0,0 +1,178 @@
+package salsa20;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ * Cifrado de muchos mensajes chicos bajo una misma key. Se agregan entradas (nonce, rango de entrada, rango de salida) con add y se cifran
+ * todas juntas con encryptAll, que escribe en los buffers de quien llama. Los bloques de keystream de todos los mensajes se calculan en grupos:
+ * cada grupo junta bloques de mensajes distintos (con su nonce y su contador) y el motor los calcula en una sola llamada, asi que con el motor
+ * vectorial varios mensajes comparten las mismas instrucciones. La key se carga una sola vez y no se reserva memoria por mensaje
+ * (los arreglos de entradas solo crecen cuando el lote supera la capacidad). No es thread-safe: cada hilo usa su propio lote.
+ */
+public final class Salsa20Batch {
+
+	private static final int TAM_BLOQUE = Salsa20.TAM_BLOQUE;
+	private static final int TAM_NONCE = 8;
+
+	// Cantidad de bloques por grupo cuando el motor calcula de a uno
+	private static final int BLOQUES_POR_GRUPO_MINIMO = 16;
+
+	private static final VarHandle LONG_ARRAY = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final Salsa20Key key;
+	private final KeystreamEngine motor;
+
+	// Estado con la key. Las celdas 6 a 9 las pone el motor para cada bloque
+	private final int[] estado = new int[16];
+
+	// Entradas del lote
+	private byte[][] nonces, entradas, salidas;
+	private int[] offsetsNonce, offsetsEntrada, largos, offsetsSalida;
+	private int cantidad;
+
+	// Grupo de bloques en curso: celdas 6 a 9 de cada bloque, mensaje y posicion dentro del mensaje, y el keystream calculado
+	private final int[] variables;
+	private final int[] mensajeDelBloque;
+	private final int[] posicionDelBloque;
+	private final byte[] keystream;
+
+	public Salsa20Batch(Salsa20Key key) {
+		this(key, KeystreamEngine.porDefecto(), 64);
+	}
+
+	// capacidad es la cantidad de entradas inicial, el lote crece si hace falta
+	public Salsa20Batch(Salsa20Key key, KeystreamEngine motor, int capacidad) {
+		if (capacidad <= 0) {
+			throw new IllegalArgumentException("La capacidad debe ser positiva");
+		}
+		this.key = key;
+		this.motor = motor;
+
+		int bloquesPorGrupo = Math.max(BLOQUES_POR_GRUPO_MINIMO, motor.bloquesPorLlamada());
+		variables = new int[4 * bloquesPorGrupo];
+		mensajeDelBloque = new int[bloquesPorGrupo];
+		posicionDelBloque = new int[bloquesPorGrupo];
+		keystream = new byte[bloquesPorGrupo * TAM_BLOQUE];
+
+		nonces = new byte[capacidad][];
+		entradas = new byte[capacidad][];
+		salidas = new byte[capacidad][];
+		offsetsNonce = new int[capacidad];
+		offsetsEntrada = new int[capacidad];
+		largos = new int[capacidad];
+		offsetsSalida = new int[capacidad];
+
+		key.cargarEstado(estado, new byte[TAM_NONCE]);
+	}
+
+	/*
+	 * Agrega un mensaje: len bytes de in a partir de inOff que se cifran con el nonce de 8 bytes nonce[nonceOff..nonceOff + 8) y se escriben
+	 * en out a partir de outOff. Los buffers no se copian, asi que no se pueden modificar hasta que termine encryptAll.
+	 * in y out pueden ser el mismo array con el mismo offset para cifrar en el lugar.
+	 */
+	public void add(byte[] nonce, int nonceOff, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		if (nonceOff < 0 || nonceOff > nonce.length - TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + TAM_NONCE + " bytes");
+		}
+		if (len < 0 || inOff < 0 || outOff < 0 || inOff > in.length - len || outOff > out.length - len) {
+			throw new IndexOutOfBoundsException("Rango invalido para la entrada o la salida");
+		}
+		if (cantidad == largos.length) {
+			crecer();
+		}
+
+		nonces[cantidad] = nonce;
+		offsetsNonce[cantidad] = nonceOff;
+		entradas[cantidad] = in;
+		offsetsEntrada[cantidad] = inOff;
+		largos[cantidad] = len;
+		salidas[cantidad] = out;
+		offsetsSalida[cantidad] = outOff;
+		cantidad++;
+	}
+
+	public int size() {
+		return cantidad;
+	}
+
+	// Cifra (o descifra) todos los mensajes agregados, cada uno desde el bloque 0 de su nonce, y vacia el lote
+	public void encryptAll() {
+		int bloquesPorGrupo = mensajeDelBloque.length;
+		int enGrupo = 0;
+		int nonce0, nonce1, m, pos;
+
+		for (m = 0; m < cantidad; m++) {
+			nonce0 = Salsa20.cargarCelda(nonces[m], offsetsNonce[m]);
+			nonce1 = Salsa20.cargarCelda(nonces[m], offsetsNonce[m] + 4);
+
+			// Un bloque del grupo por cada 64 bytes del mensaje. El contador entra en la parte baja: un mensaje del lote nunca llega a 2^32 bloques
+			for (pos = 0; pos < largos[m]; pos += TAM_BLOQUE) {
+				variables[4 * enGrupo] = nonce0;
+				variables[4 * enGrupo + 1] = nonce1;
+				variables[4 * enGrupo + 2] = pos / TAM_BLOQUE;
+				variables[4 * enGrupo + 3] = 0;
+				mensajeDelBloque[enGrupo] = m;
+				posicionDelBloque[enGrupo] = pos;
+
+				if (++enGrupo == bloquesPorGrupo) {
+					cifrarGrupo(enGrupo);
+					enGrupo = 0;
+				}
+			}
+		}
+		if (enGrupo > 0) {
+			cifrarGrupo(enGrupo);
+		}
+
+		clear();
+	}
+
+	// Vacia el lote sin cifrar y suelta las referencias a los buffers
+	public void clear() {
+		Arrays.fill(nonces, 0, cantidad, null);
+		Arrays.fill(entradas, 0, cantidad, null);
+		Arrays.fill(salidas, 0, cantidad, null);
+		cantidad = 0;
+	}
+
+	// Calcula el keystream de los bloques del grupo y hace el XOR de cada uno con su parte del mensaje
+	private void cifrarGrupo(int bloques) {
+		int m, pos, largo, i, inOff, outOff, ks;
+		byte[] in, out;
+
+		motor.generarBloques(estado, key.rondas(), variables, bloques, keystream, 0);
+
+		for (int b = 0; b < bloques; b++) {
+			m = mensajeDelBloque[b];
+			pos = posicionDelBloque[b];
+			largo = Math.min(TAM_BLOQUE, largos[m] - pos);
+			in = entradas[m];
+			out = salidas[m];
+			inOff = offsetsEntrada[m] + pos;
+			outOff = offsetsSalida[m] + pos;
+			ks = b * TAM_BLOQUE;
+
+			for (i = 0; i + 8 <= largo; i += 8) {
+				LONG_ARRAY.set(out, outOff + i, (long) LONG_ARRAY.get(in, inOff + i) ^ (long) LONG_ARRAY.get(keystream, ks + i));
+			}
+			for (; i < largo; i++) {
+				out[outOff + i] = (byte) (in[inOff + i] ^ keystream[ks + i]);
+			}
+		}
+	}
+
+	private void crecer() {
+		int capacidad = largos.length * 2;
+
+		nonces = Arrays.copyOf(nonces, capacidad);
+		entradas = Arrays.copyOf(entradas, capacidad);
+		salidas = Arrays.copyOf(salidas, capacidad);
+		offsetsNonce = Arrays.copyOf(offsetsNonce, capacidad);
+		offsetsEntrada = Arrays.copyOf(offsetsEntrada, capacidad);
+		largos = Arrays.copyOf(largos, capacidad);
+		offsetsSalida = Arrays.copyOf(offsetsSalida, capacidad);
+	}
+}
@@ -0,0 +1,298 @@
+package salsa20;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/*
+ * Cifrador en flujo Salsa20 con estado. Se inicializa una vez con init(key, nonce) y despues se le pueden pasar los datos
+ * en pedazos de cualquier tamaño con update. Los bytes de keystream que sobran de un bloque se guardan para la siguiente llamada,
+ * de manera que cifrar un mensaje de una sola vez o en varias partes da el mismo resultado.
+ * Como Salsa20 es un cifrador en flujo, la misma operacion sirve para cifrar y descifrar.
+ * Los bloques de keystream los calcula un KeystreamEngine (escalar o vectorial), que se puede elegir al construir el cifrador.
+ */
+public class Salsa20Cipher {
+
+	private static final int TAM_BLOQUE = Salsa20.TAM_BLOQUE;
+	private static final int TAM_KEY = 32;
+	private static final int TAM_NONCE = 8;
+
+	// Vistas para leer y escribir de a 8 o 4 bytes (little-endian) sobre un ByteBuffer (heap o directo) y sobre arrays de bytes
+	private static final VarHandle LONG_BUFFER = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG_ARRAY = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_BUFFER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_ARRAY = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	// Matriz de estado de entrada (key, nonce, constante y contador). Las rondas nunca la modifican
+	private final int[] estado = new int[16];
+
+	// Motor que calcula los bloques de keystream
+	private final KeystreamEngine motor;
+
+	// Rondas del nucleo (20, 12 u 8). Se fijan en cada init
+	private int rondas = Salsa20.RONDAS;
+
+	// Bloques de keystream actuales (tantos como calcula el motor en cada llamada). Se reutiliza para no generar basura
+	private final byte[] keystream;
+
+	// Numero del proximo bloque de keystream a generar
+	private long numeroBloque;
+
+	// Posicion dentro del keystream actual y fin de los bytes validos. Si son iguales hay que generar mas bloques
+	private int posKeystream;
+	private int finKeystream;
+
+	private boolean inicializado;
+
+	// Medicion del update en curso cuando las metricas estan activas: tiempo en el motor y bloques generados (ver Metricas)
+	private boolean medir;
+	private long nanosKeystream;
+	private long bloquesMedidos;
+
+	// Cifrador con el motor de keystream por defecto (ver KeystreamEngine)
+	public Salsa20Cipher() {
+		this(KeystreamEngine.porDefecto());
+	}
+
+	public Salsa20Cipher(KeystreamEngine motor) {
+		this.motor = motor;
+		this.keystream = new byte[motor.bloquesPorLlamada() * TAM_BLOQUE];
+	}
+
+	/*
+	 * Inicializa (o reinicia) el cifrador con una key ya cargada y un nonce de 8 bytes, sin volver a procesar la key.
+	 * Se usan las rondas de la key y el contador vuelve a 0
+	 */
+	public void init(Salsa20Key key, byte[] nonce) {
+		key.cargarEstado(estado, nonce);
+		rondas = key.rondas();
+		irABloque(0);
+		inicializado = true;
+	}
+
+	// Igual que el anterior con el nonce de 8 bytes en nonce[offsetNonce..offsetNonce + 8)
+	void init(Salsa20Key key, byte[] nonce, int offsetNonce) {
+		key.cargarEstado(estado, nonce, offsetNonce);
+		rondas = key.rondas();
+		irABloque(0);
+		inicializado = true;
+	}
+
+	// Inicializa (o reinicia) el cifrador con una key de 32 bytes y un nonce de 8 bytes para Salsa20/20. El contador vuelve a 0
+	public void init(byte[] key, byte[] nonce) {
+		init(key, nonce, Salsa20.RONDAS);
+	}
+
+	// Igual que el anterior pero con la cantidad de rondas indicada: 20, 12 (Salsa20/12) u 8 (Salsa20/8)
+	public void init(byte[] key, byte[] nonce, int rondas) {
+		if (key == null || key.length != TAM_KEY) {
+			throw new IllegalArgumentException("La key debe tener " + TAM_KEY + " bytes");
+		}
+		if (nonce == null || nonce.length != TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + TAM_NONCE + " bytes");
+		}
+
+		long inicio = Metricas.inicio();
+
+		this.rondas = Salsa20.validarRondas(rondas);
+		Salsa20.generarMatrizInicial(estado, key, nonce);
+		irABloque(0);
+		Metricas.registrar(Etapa.CARGAR_KEY, inicio, TAM_KEY);
+		inicializado = true;
+	}
+
+	/*
+	 * Cifra (o descifra) len bytes de in a partir de inOff y los escribe en out a partir de outOff. Primero se consumen los bytes de keystream
+	 * que hayan quedado de la llamada anterior, despues se generan los bloques necesarios y lo que sobra queda pendiente para la proxima llamada.
+	 * in y out pueden ser el mismo array con el mismo offset para cifrar en el lugar. Devuelve la cantidad de bytes escritos.
+	 */
+	public int update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+		if (!inicializado) {
+			throw new IllegalStateException("El cifrador no fue inicializado");
+		}
+		if (len < 0 || inOff < 0 || outOff < 0 || inOff > in.length - len || outOff > out.length - len) {
+			throw new IndexOutOfBoundsException("Rango invalido para la entrada o la salida");
+		}
+
+		int restantes = len;
+		int cantidad, i;
+		long inicio = empezarMedicion();
+
+		// Usamos primero lo que haya quedado del keystream anterior y generamos mas bloques cuando se termina
+		while (restantes > 0) {
+			if (posKeystream == finKeystream) {
+				generarKeystream(restantes);
+			}
+
+			cantidad = Math.min(restantes, finKeystream - posKeystream);
+
+			// XOR de a 8 bytes directamente de la entrada a la salida, y los ultimos (menos de 8) en xorCola
+			for (i = 0; i + 8 <= cantidad; i += 8) {
+				LONG_ARRAY.set(out, outOff + i,
+						(long) LONG_ARRAY.get(in, inOff + i) ^ (long) LONG_ARRAY.get(keystream, posKeystream + i));
+			}
+			if (i < cantidad) {
+				xorCola(in, inOff + i, out, outOff + i, posKeystream + i, cantidad - i);
+			}
+			inOff += cantidad;
+			outOff += cantidad;
+			posKeystream += cantidad;
+			restantes -= cantidad;
+		}
+
+		terminarMedicion(inicio, len);
+		return len;
+	}
+
+	/*
+	 * Igual que el update con arrays pero sobre ByteBuffers, sin copiar los datos a un byte[] intermedio. Se procesan los bytes entre la
+	 * posicion y el limite de entrada y se escriben a partir de la posicion de salida; al terminar avanza la posicion de los dos buffers.
+	 * Funciona con buffers heap o directos, la entrada puede ser de solo lectura y para cifrar en el lugar se pasa el mismo buffer dos veces.
+	 * No se modifica el orden de bytes (order) de los buffers. Devuelve la cantidad de bytes escritos.
+	 */
+	public int update(ByteBuffer entrada, ByteBuffer salida) {
+		if (!inicializado) {
+			throw new IllegalStateException("El cifrador no fue inicializado");
+		}
+		if (salida.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+
+		int len = entrada.remaining();
+		if (salida.remaining() < len) {
+			throw new BufferOverflowException();
+		}
+
+		int posIn = entrada.position();
+		int posOut = salida.position();
+		int restantes = len;
+		int cantidad, i;
+		long inicio = empezarMedicion();
+
+		while (restantes > 0) {
+			if (posKeystream == finKeystream) {
+				generarKeystream(restantes);
+			}
+			cantidad = Math.min(restantes, finKeystream - posKeystream);
+
+			// XOR de a 8 bytes y los ultimos (menos de 8) en xorCola
+			for (i = 0; i + 8 <= cantidad; i += 8) {
+				LONG_BUFFER.set(salida, posOut + i,
+						(long) LONG_BUFFER.get(entrada, posIn + i) ^ (long) LONG_ARRAY.get(keystream, posKeystream + i));
+			}
+			if (i < cantidad) {
+				xorCola(entrada, posIn + i, salida, posOut + i, posKeystream + i, cantidad - i);
+			}
+			posIn += cantidad;
+			posOut += cantidad;
+			posKeystream += cantidad;
+			restantes -= cantidad;
+		}
+
+		entrada.position(posIn);
+		salida.position(posOut);
+		terminarMedicion(inicio, len);
+		return len;
+	}
+
+	/*
+	 * Posiciona el cifrador en el byte posicion del flujo, como si ya se hubieran procesado posicion bytes. Como Salsa20 es un cifrador
+	 * en modo contador, alcanza con calcular el bloque posicion / 64 y saltear posicion % 64 bytes dentro de ese bloque.
+	 */
+	public void seek(long posicion) {
+		if (!inicializado) {
+			throw new IllegalStateException("El cifrador no fue inicializado");
+		}
+		if (posicion < 0) {
+			throw new IllegalArgumentException("La posicion no puede ser negativa");
+		}
+
+		int desplazamiento = (int) (posicion % TAM_BLOQUE);
+
+		irABloque(posicion / TAM_BLOQUE);
+		if (desplazamiento != 0) {
+			generarKeystream(1);
+			posKeystream = desplazamiento;
+		}
+	}
+
+	// Posicion actual en el flujo: cantidad de bytes procesados desde el principio (o desde la posicion del ultimo seek)
+	public long posicion() {
+		return numeroBloque * TAM_BLOQUE - (finKeystream - posKeystream);
+	}
+
+	/*
+	 * XOR de los ultimos bytes de un tramo (menos de 8). Si quedan 4 o mas se hace un XOR de 4 bytes y el resto de a uno,
+	 * asi la cola nunca lleva mas de cuatro operaciones.
+	 */
+	private void xorCola(byte[] in, int inOff, byte[] out, int outOff, int posKs, int cantidad) {
+		int i = 0;
+
+		if (cantidad >= 4) {
+			INT_ARRAY.set(out, outOff, (int) INT_ARRAY.get(in, inOff) ^ (int) INT_ARRAY.get(keystream, posKs));
+			i = 4;
+		}
+		for (; i < cantidad; i++) {
+			out[outOff + i] = (byte) (in[inOff + i] ^ keystream[posKs + i]);
+		}
+	}
+
+	private void xorCola(ByteBuffer entrada, int posIn, ByteBuffer salida, int posOut, int posKs, int cantidad) {
+		int i = 0;
+
+		if (cantidad >= 4) {
+			INT_BUFFER.set(salida, posOut, (int) INT_BUFFER.get(entrada, posIn) ^ (int) INT_ARRAY.get(keystream, posKs));
+			i = 4;
+		}
+		for (; i < cantidad; i++) {
+			salida.put(posOut + i, (byte) (entrada.get(posIn + i) ^ keystream[posKs + i]));
+		}
+	}
+
+	// Empieza a medir un update si las metricas estan activas. Desactivadas, solo se lee el flag
+	private long empezarMedicion() {
+		long inicio = Metricas.inicio();
+
+		medir = inicio != Metricas.SIN_MEDIR;
+		nanosKeystream = 0;
+		bloquesMedidos = 0;
+		return inicio;
+	}
+
+	private void terminarMedicion(long inicio, int len) {
+		if (medir) {
+			medir = false;
+			Metricas.registrarCifrado(inicio, nanosKeystream, len, bloquesMedidos);
+		}
+	}
+
+	// Posiciona el cifrador al principio del bloque indicado, descartando el keystream pendiente
+	void irABloque(long bloque) {
+		numeroBloque = bloque;
+		posKeystream = 0;
+		finKeystream = 0;
+	}
+
+	/*
+	 * Genera los siguientes bloques de keystream: los que hagan falta para cubrir restantes bytes, como maximo los que el motor
+	 * calcula en una llamada. El motor pone el contador de 64 bits en las celdas 8 (parte baja) y 9 (parte alta)
+	 */
+	private void generarKeystream(int restantes) {
+		int bloques = Math.min(keystream.length / TAM_BLOQUE, (restantes - 1) / TAM_BLOQUE + 1);
+
+		if (medir) {
+			long inicio = System.nanoTime();
+			motor.generarBloques(estado, rondas, numeroBloque, bloques, keystream, 0);
+			nanosKeystream += System.nanoTime() - inicio;
+			bloquesMedidos += bloques;
+		} else {
+			motor.generarBloques(estado, rondas, numeroBloque, bloques, keystream, 0);
+		}
+		numeroBloque += bloques;
+		posKeystream = 0;
+		finKeystream = bloques * TAM_BLOQUE;
+	}
+}
@@ -0,0 +1,308 @@
+package salsa20;
+
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/*
+ * Salsa20 (y XSalsa20) para javax.crypto.Cipher, CipherInputStream y CipherOutputStream, ver Salsa20Provider.
+ * La key es una SecretKey de 32 bytes en formato RAW (por ejemplo new SecretKeySpec(bytes, "Salsa20")) y el nonce se pasa como
+ * IvParameterSpec de 8 bytes (24 en XSalsa20). Si al cifrar no se pasa nonce se genera uno al azar, que se obtiene con getIV.
+ *
+ * Los update trabajan directamente sobre los arrays o ByteBuffers de quien llama (heap o directos) con Salsa20Cipher, sin copias
+ * intermedias: la unica copia es cuando entrada y salida son el mismo array con la salida adelantada sobre la entrada.
+ * Como es un cifrador en flujo no hay padding ni bloques pendientes, y doFinal no agrega bytes.
+ *
+ * Despues de doFinal al descifrar el cifrador vuelve al principio del flujo, como pide Cipher. Al cifrar eso repetiria el keystream,
+ * asi que hay que volver a inicializarlo con otro nonce; tampoco se acepta inicializarlo para cifrar con la misma key y nonce que la vez anterior.
+ */
+public abstract class Salsa20CipherSpi extends CipherSpi {
+
+	private static final int TAM_KEY = 32;
+
+	private final int rondas;
+	private final int tamNonce;
+
+	// Cifrador reutilizado en cada init
+	private final Salsa20Cipher cifrador = new Salsa20Cipher();
+
+	// Key (o subkey de XSalsa20) y nonce del init actual
+	private Salsa20Key key;
+	private byte[] nonce;
+	private int modo;
+
+	// Key y nonce del ultimo init para cifrar, para no repetirlos
+	private byte[] ultimaKey;
+	private byte[] ultimoNonce;
+
+	// Al cifrar, despues de doFinal hay que volver a llamar a init
+	private boolean terminado;
+
+	Salsa20CipherSpi(int rondas, int tamNonce) {
+		this.rondas = rondas;
+		this.tamNonce = tamNonce;
+	}
+
+	// Salsa20/20 con nonce de 8 bytes
+	public static final class Rondas20 extends Salsa20CipherSpi {
+		public Rondas20() {
+			super(20, 8);
+		}
+	}
+
+	// Salsa20/12 con nonce de 8 bytes
+	public static final class Rondas12 extends Salsa20CipherSpi {
+		public Rondas12() {
+			super(12, 8);
+		}
+	}
+
+	// Salsa20/8 con nonce de 8 bytes
+	public static final class Rondas8 extends Salsa20CipherSpi {
+		public Rondas8() {
+			super(8, 8);
+		}
+	}
+
+	// XSalsa20 (20 rondas) con nonce de 24 bytes
+	public static final class Extendido extends Salsa20CipherSpi {
+		public Extendido() {
+			super(20, XSalsa20.TAM_NONCE);
+		}
+	}
+
+	// Un cifrador en flujo no tiene modos: solo se acepta "None" (o "ECB", que algunas librerias pasan por defecto)
+	@Override
+	protected void engineSetMode(String modo) throws NoSuchAlgorithmException {
+		if (!modo.equalsIgnoreCase("None") && !modo.equalsIgnoreCase("ECB")) {
+			throw new NoSuchAlgorithmException("Modo no soportado: " + modo);
+		}
+	}
+
+	@Override
+	protected void engineSetPadding(String padding) throws NoSuchPaddingException {
+		if (!padding.equalsIgnoreCase("NoPadding")) {
+			throw new NoSuchPaddingException("Padding no soportado: " + padding);
+		}
+	}
+
+	@Override
+	protected int engineGetBlockSize() {
+		return 0;
+	}
+
+	@Override
+	protected int engineGetOutputSize(int inputLen) {
+		return inputLen;
+	}
+
+	@Override
+	protected byte[] engineGetIV() {
+		return nonce == null ? null : nonce.clone();
+	}
+
+	// El nonce se obtiene con getIV: no hay un AlgorithmParameters registrado para Salsa20
+	@Override
+	protected AlgorithmParameters engineGetParameters() {
+		return null;
+	}
+
+	@Override
+	protected int engineGetKeySize(Key key) throws InvalidKeyException {
+		return bytesKey(key).length * 8;
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+		try {
+			engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+		} catch (InvalidAlgorithmParameterException e) {
+			// Sin parametros solo falla al descifrar, que necesita el nonce
+			throw new InvalidKeyException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameters params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		AlgorithmParameterSpec spec = null;
+
+		if (params != null) {
+			try {
+				spec = params.getParameterSpec(IvParameterSpec.class);
+			} catch (InvalidParameterSpecException e) {
+				throw new InvalidAlgorithmParameterException("Los parametros deben contener el nonce (IvParameterSpec)", e);
+			}
+		}
+		engineInit(opmode, key, spec, random);
+	}
+
+	@Override
+	protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
+			throws InvalidKeyException, InvalidAlgorithmParameterException {
+		if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE) {
+			throw new InvalidParameterException("Solo se puede cifrar o descifrar");
+		}
+
+		byte[] bytesKey = bytesKey(key);
+		byte[] nuevoNonce;
+
+		if (params == null) {
+			if (opmode == Cipher.DECRYPT_MODE) {
+				throw new InvalidAlgorithmParameterException("Para descifrar hace falta el nonce");
+			}
+			nuevoNonce = new byte[tamNonce];
+			(random != null ? random : new SecureRandom()).nextBytes(nuevoNonce);
+		} else if (params instanceof IvParameterSpec) {
+			nuevoNonce = ((IvParameterSpec) params).getIV();
+		} else {
+			throw new InvalidAlgorithmParameterException("El nonce se pasa como IvParameterSpec");
+		}
+		if (nuevoNonce.length != tamNonce) {
+			throw new InvalidAlgorithmParameterException("El nonce debe tener " + tamNonce + " bytes");
+		}
+
+		if (opmode == Cipher.ENCRYPT_MODE) {
+			if (Arrays.equals(bytesKey, ultimaKey) && Arrays.equals(nuevoNonce, ultimoNonce)) {
+				throw new InvalidAlgorithmParameterException("No se puede volver a cifrar con la misma key y el mismo nonce");
+			}
+			ultimaKey = bytesKey.clone();
+			ultimoNonce = nuevoNonce.clone();
+		}
+
+		Salsa20Key salsaKey = new Salsa20Key(bytesKey, rondas);
+		Arrays.fill(bytesKey, (byte) 0);
+
+		if (tamNonce == XSalsa20.TAM_NONCE) {
+			// XSalsa20: subkey con los primeros 16 bytes del nonce y Salsa20 con los ultimos 8
+			this.key = salsaKey.derivarSubkey(nuevoNonce, 0);
+			cifrador.init(this.key, nuevoNonce, 16);
+		} else {
+			this.key = salsaKey;
+			cifrador.init(this.key, nuevoNonce);
+		}
+		this.nonce = nuevoNonce;
+		this.modo = opmode;
+		this.terminado = false;
+	}
+
+	@Override
+	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
+		byte[] salida = new byte[inputLen];
+
+		procesar(input, inputOffset, inputLen, salida, 0);
+		return salida;
+	}
+
+	@Override
+	protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) throws ShortBufferException {
+		if (output.length - outputOffset < inputLen) {
+			throw new ShortBufferException("La salida necesita " + inputLen + " bytes");
+		}
+		return procesar(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	@Override
+	protected int engineUpdate(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+		if (output.remaining() < input.remaining()) {
+			throw new ShortBufferException("La salida necesita " + input.remaining() + " bytes");
+		}
+
+		// Dos buffers heap sobre el mismo array pueden solaparse: pasan por el camino de arrays, que lo tiene en cuenta
+		if (input.hasArray() && output.hasArray() && input.array() == output.array()) {
+			int len = input.remaining();
+
+			procesar(input.array(), input.arrayOffset() + input.position(), len, output.array(), output.arrayOffset() + output.position());
+			input.position(input.limit());
+			output.position(output.position() + len);
+			return len;
+		}
+
+		verificarEstado();
+		return cifrador.update(input, output);
+	}
+
+	@Override
+	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen) {
+		byte[] salida = engineUpdate(input, inputOffset, inputLen);
+
+		terminar();
+		return salida;
+	}
+
+	@Override
+	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
+			throws ShortBufferException {
+		int len = engineUpdate(input, inputOffset, inputLen, output, outputOffset);
+
+		terminar();
+		return len;
+	}
+
+	@Override
+	protected int engineDoFinal(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+		int len = engineUpdate(input, output);
+
+		terminar();
+		return len;
+	}
+
+	/*
+	 * update sobre arrays. Si la salida esta en el mismo array y empieza despues de la entrada pero se solapa con ella, el XOR hacia adelante
+	 * pisaria bytes que todavia no se leyeron, asi que en ese caso (y solo en ese) se copia la entrada antes.
+	 */
+	private int procesar(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset) {
+		verificarEstado();
+
+		// doFinal() sin argumentos llega con input en null
+		if (inputLen == 0) {
+			return 0;
+		}
+		if (input == output && outputOffset > inputOffset && outputOffset < inputOffset + inputLen) {
+			input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+			inputOffset = 0;
+		}
+		return cifrador.update(input, inputOffset, inputLen, output, outputOffset);
+	}
+
+	private void verificarEstado() {
+		if (key == null) {
+			throw new IllegalStateException("El cifrador no fue inicializado");
+		}
+		if (terminado) {
+			throw new IllegalStateException("Despues de doFinal hay que volver a inicializar el cifrador con otro nonce");
+		}
+	}
+
+	// Al descifrar se vuelve al principio del flujo; al cifrar se exige un init nuevo para no repetir keystream
+	private void terminar() {
+		if (modo == Cipher.ENCRYPT_MODE) {
+			terminado = true;
+		} else {
+			cifrador.seek(0);
+		}
+	}
+
+	private static byte[] bytesKey(Key key) throws InvalidKeyException {
+		byte[] bytes = key == null || !"RAW".equalsIgnoreCase(key.getFormat()) ? null : key.getEncoded();
+
+		if (bytes == null || bytes.length != TAM_KEY) {
+			throw new InvalidKeyException("La key debe ser de " + TAM_KEY + " bytes en formato RAW");
+		}
+		return bytes;
+	}
+}
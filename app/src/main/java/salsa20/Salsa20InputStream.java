@@ -0,0 +1,65 @@
+package salsa20;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * InputStream que cifra (o descifra) con Salsa20 los bytes que lee de otro stream. No guarda mas datos que los que pide el que lee,
+ * por lo que la memoria usada es constante sin importar el tamaño total.
+ */
+public class Salsa20InputStream extends FilterInputStream {
+
+	private final Salsa20Cipher cifrador;
+
+	// Array de un byte reutilizado por read()
+	private final byte[] unByte = new byte[1];
+
+	// El cifrador ya debe estar inicializado con init(key, nonce)
+	public Salsa20InputStream(InputStream in, Salsa20Cipher cifrador) {
+		super(in);
+		this.cifrador = cifrador;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int leidos = read(unByte, 0, 1);
+		return leidos == -1 ? -1 : unByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int leidos = in.read(b, off, len);
+
+		// Ciframos en el lugar lo que se haya leido
+		if (leidos > 0) {
+			cifrador.update(b, off, leidos, b, off);
+		}
+		return leidos;
+	}
+
+	// Salteamos en el stream original y movemos el cifrador la misma cantidad de bytes, sin generar el keystream intermedio
+	@Override
+	public long skip(long n) throws IOException {
+		long salteados = in.skip(n);
+
+		if (salteados > 0) {
+			cifrador.seek(cifrador.posicion() + salteados);
+		}
+		return salteados;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Salsa20InputStream no soporta mark/reset");
+	}
+}
@@ -0,0 +1,170 @@
+package salsa20;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/*
+ * Key de Salsa20 ya cargada en la matriz de estado. Es inmutable: la matriz se calcula una sola vez en el constructor y nunca
+ * se expone, por lo que una misma instancia se puede guardar en un cache y compartir entre hilos sin sincronizacion.
+ * El estado de trabajo (contador y keystream) vive en cada Salsa20Cipher, que es barato de crear o de reutilizar por hilo.
+ */
+public final class Salsa20Key {
+
+	private static final int TAM_KEY = 32;
+	private static final int TAM_NONCE = 8;
+
+	// Cifrador reutilizado por cada hilo en encrypt. Se comparte entre todas las keys, cada llamada lo reinicia con la key y el nonce
+	private static final ThreadLocal<Salsa20Cipher> CIFRADOR_POR_HILO = ThreadLocal.withInitial(Salsa20Cipher::new);
+
+	// Matriz de estado con la constante y la key. Las celdas del nonce (6 y 7) y del contador (8 y 9) quedan en 0
+	private final int[] plantilla = new int[16];
+
+	// Rondas con las que se usa la key (20, 12 u 8)
+	private final int rondas;
+
+	// Key para Salsa20/20
+	public Salsa20Key(byte[] key) {
+		this(key, Salsa20.RONDAS);
+	}
+
+	// Key para la variante con la cantidad de rondas indicada: 20, 12 (Salsa20/12) u 8 (Salsa20/8)
+	public Salsa20Key(byte[] key, int rondas) {
+		if (key == null || key.length != TAM_KEY) {
+			throw new IllegalArgumentException("La key debe tener " + TAM_KEY + " bytes");
+		}
+		long inicio = Metricas.inicio();
+
+		this.rondas = Salsa20.validarRondas(rondas);
+		Salsa20.generarMatrizInicial(plantilla, key, new byte[TAM_NONCE]);
+		Metricas.registrar(Etapa.CARGAR_KEY, inicio, TAM_KEY);
+	}
+
+	/*
+	 * Subkey de XSalsa20: HSalsa20 de esta key con los bytes nonce[offset..offset + 16). Las 8 palabras de salida reemplazan a la key
+	 * en la plantilla (celdas 1 a 4 y 11 a 14) y la constante queda igual. La subkey usa las mismas rondas.
+	 */
+	Salsa20Key derivarSubkey(byte[] nonce, int offset) {
+		long inicio = Metricas.inicio();
+		int[] x = plantilla.clone();
+
+		x[6] = Salsa20.cargarCelda(nonce, offset);
+		x[7] = Salsa20.cargarCelda(nonce, offset + 4);
+		x[8] = Salsa20.cargarCelda(nonce, offset + 8);
+		x[9] = Salsa20.cargarCelda(nonce, offset + 12);
+		Salsa20.hsalsa20(x, rondas);
+
+		// Reusamos x como plantilla de la subkey: las celdas 1 a 4 toman z0, z5, z10, z15 y las 11 a 14 toman z6, z7, z8, z9
+		int z0 = x[0], z5 = x[5], z10 = x[10], z15 = x[15];
+		x[11] = x[6];
+		x[12] = x[7];
+		x[13] = x[8];
+		x[14] = x[9];
+		x[1] = z0;
+		x[2] = z5;
+		x[3] = z10;
+		x[4] = z15;
+		x[0] = plantilla[0];
+		x[5] = plantilla[5];
+		x[10] = plantilla[10];
+		x[15] = plantilla[15];
+		x[6] = x[7] = x[8] = x[9] = 0;
+
+		Salsa20Key subkey = new Salsa20Key(x, rondas);
+		Metricas.registrar(Etapa.CARGAR_KEY, inicio, TAM_KEY);
+		return subkey;
+	}
+
+	// Key a partir de una plantilla ya calculada (la de una subkey de XSalsa20)
+	private Salsa20Key(int[] plantilla, int rondas) {
+		System.arraycopy(plantilla, 0, this.plantilla, 0, 16);
+		this.rondas = rondas;
+	}
+
+	public int rondas() {
+		return rondas;
+	}
+
+	// Copia la plantilla en estado y agrega el nonce. El contador queda en 0
+	void cargarEstado(int[] estado, byte[] nonce) {
+		if (nonce == null || nonce.length != TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + TAM_NONCE + " bytes");
+		}
+		cargarEstado(estado, nonce, 0);
+	}
+
+	// Igual que el anterior con el nonce de 8 bytes en nonce[offset..offset + 8), por ejemplo los ultimos 8 bytes del nonce de XSalsa20
+	void cargarEstado(int[] estado, byte[] nonce, int offset) {
+		System.arraycopy(plantilla, 0, estado, 0, plantilla.length);
+		estado[6] = Salsa20.cargarCelda(nonce, offset);
+		estado[7] = Salsa20.cargarCelda(nonce, offset + 4);
+	}
+
+	// Devuelve un cifrador nuevo inicializado con esta key y el nonce. El cifrador no es thread-safe, es para un solo hilo
+	public Salsa20Cipher newCipher(byte[] nonce) {
+		Salsa20Cipher cifrador = new Salsa20Cipher();
+		cifrador.init(this, nonce);
+		return cifrador;
+	}
+
+	/*
+	 * Cifra (o descifra) un mensaje completo con esta key y el nonce, empezando por el bloque 0. Se puede llamar desde muchos hilos
+	 * a la vez: cada hilo usa su propio cifrador, sin locks y sin volver a cargar la key.
+	 */
+	public void encrypt(byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		Salsa20Cipher cifrador = CIFRADOR_POR_HILO.get();
+		cifrador.init(this, nonce);
+		cifrador.update(in, inOff, len, out, outOff);
+	}
+
+	/*
+	 * Igual que encrypt pero empezando en el byte posicion del flujo en lugar del principio, por ejemplo para cifrar o descifrar
+	 * un pedazo de un archivo sin procesar los anteriores. Tambien se puede llamar desde muchos hilos a la vez.
+	 */
+	public void encryptAt(byte[] nonce, long posicion, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		Salsa20Cipher cifrador = CIFRADOR_POR_HILO.get();
+		cifrador.init(this, nonce);
+		cifrador.seek(posicion);
+		cifrador.update(in, inOff, len, out, outOff);
+	}
+
+	// Igual que el anterior con el nonce en nonce[offsetNonce..offsetNonce + 8)
+	void encrypt(byte[] nonce, int offsetNonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		Salsa20Cipher cifrador = CIFRADOR_POR_HILO.get();
+		cifrador.init(this, nonce, offsetNonce);
+		cifrador.update(in, inOff, len, out, outOff);
+	}
+
+	/*
+	 * Descifra solo length bytes de un criptograma a partir de offset. El cifrador se posiciona directamente en el bloque offset / 64,
+	 * asi que el costo es proporcional a los bytes pedidos y no a la posicion.
+	 */
+	public byte[] decryptRange(byte[] criptograma, byte[] nonce, int offset, int length) {
+		byte[] resultado = new byte[length];
+		Salsa20Cipher cifrador = CIFRADOR_POR_HILO.get();
+
+		cifrador.init(this, nonce);
+		cifrador.seek(offset);
+		cifrador.update(criptograma, offset, length, resultado, 0);
+		return resultado;
+	}
+
+	// Igual que el anterior pero leyendo del canal (por ejemplo un FileChannel) solo los bytes del rango pedido
+	public byte[] decryptRange(SeekableByteChannel fuente, byte[] nonce, long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		Salsa20Cipher cifrador = CIFRADOR_POR_HILO.get();
+
+		fuente.position(offset);
+		while (buffer.hasRemaining()) {
+			if (fuente.read(buffer) == -1) {
+				throw new EOFException("El criptograma termina antes del final del rango pedido");
+			}
+		}
+
+		cifrador.init(this, nonce);
+		cifrador.seek(offset);
+		cifrador.update(buffer.array(), 0, length, buffer.array(), 0);
+		return buffer.array();
+	}
+}
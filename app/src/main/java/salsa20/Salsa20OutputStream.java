@@ -0,0 +1,44 @@
+package salsa20;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * OutputStream que cifra (o descifra) con Salsa20 los bytes antes de escribirlos en otro stream. Los datos se cifran de a pedazos
+ * en un buffer de tamaño fijo, asi el array del que escribe nunca se modifica y la memoria usada es constante.
+ */
+public class Salsa20OutputStream extends FilterOutputStream {
+
+	private static final int TAM_BUFFER = 8192;
+
+	private final Salsa20Cipher cifrador;
+	private final byte[] buffer = new byte[TAM_BUFFER];
+
+	// El cifrador ya debe estar inicializado con init(key, nonce)
+	public Salsa20OutputStream(OutputStream out, Salsa20Cipher cifrador) {
+		super(out);
+		this.cifrador = cifrador;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		buffer[0] = (byte) b;
+		cifrador.update(buffer, 0, 1, buffer, 0);
+		out.write(buffer, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int cantidad;
+
+		// Ciframos y escribimos de a pedazos del tamaño del buffer
+		while (len > 0) {
+			cantidad = Math.min(len, TAM_BUFFER);
+			cifrador.update(b, off, cantidad, buffer, 0);
+			out.write(buffer, 0, cantidad);
+			off += cantidad;
+			len -= cantidad;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package salsa20;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Cifrado en paralelo sobre rangos de bloques. Cada bloque de keystream depende solo de la key, el nonce y el numero de bloque,
+ * asi que el mensaje se divide en partes alineadas a 64 bytes y cada tarea del ForkJoinPool cifra su parte con su propio
+ * Salsa20Cipher posicionado en el primer bloque de ese rango. El resultado es identico byte a byte al cifrado secuencial.
+ */
+public class Salsa20Parallel {
+
+	// Por debajo de este tamaño no conviene repartir el trabajo y se cifra en el hilo que llama
+	public static final int UMBRAL_POR_DEFECTO = 1 << 20;
+
+	// Tamaño de cada parte que procesa una tarea
+	public static final int TAM_PARTE_POR_DEFECTO = 256 * 1024;
+
+	private final ForkJoinPool pool;
+	private final int umbral;
+	private final int tamParte;
+
+	public Salsa20Parallel() {
+		this(ForkJoinPool.commonPool(), UMBRAL_POR_DEFECTO, TAM_PARTE_POR_DEFECTO);
+	}
+
+	// tamParte se redondea hacia arriba a un multiplo de 64 para que cada parte empiece en un bloque entero
+	public Salsa20Parallel(ForkJoinPool pool, int umbral, int tamParte) {
+		if (umbral < 0) {
+			throw new IllegalArgumentException("El umbral no puede ser negativo");
+		}
+		if (tamParte <= 0) {
+			throw new IllegalArgumentException("El tamaño de cada parte debe ser positivo");
+		}
+		this.pool = pool;
+		this.umbral = umbral;
+		this.tamParte = (int) Math.min(Integer.MAX_VALUE - Salsa20.TAM_BLOQUE + 1,
+				((long) tamParte + Salsa20.TAM_BLOQUE - 1) / Salsa20.TAM_BLOQUE * Salsa20.TAM_BLOQUE);
+	}
+
+	/*
+	 * Cifra (o descifra) len bytes de in a partir de inOff y los escribe en out a partir de outOff, empezando por el bloque 0 del keystream.
+	 * in y out pueden ser el mismo array con el mismo offset. Bloquea hasta que terminan todas las tareas.
+	 */
+	public void encryptParallel(byte[] key, byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		encryptParallel(new Salsa20Key(key), nonce, in, inOff, len, out, outOff);
+	}
+
+	// Igual que el anterior con una key ya cargada, que ademas fija las rondas (ver Salsa20Key)
+	public void encryptParallel(Salsa20Key key, byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		if (len < 0 || inOff < 0 || outOff < 0 || inOff > in.length - len || outOff > out.length - len) {
+			throw new IndexOutOfBoundsException("Rango invalido para la entrada o la salida");
+		}
+
+		Tarea tarea = new Tarea(key, nonce, in, inOff, out, outOff, 0, len);
+		if (len <= umbral) {
+			tarea.cifrar();
+		} else {
+			pool.invoke(tarea);
+		}
+	}
+
+	// Tarea que cifra los bytes [desde, hasta) del mensaje, dividiendose en dos mientras sea mas grande que una parte
+	private class Tarea extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Salsa20Key key;
+		private final byte[] nonce, in, out;
+		private final int inOff, outOff, desde, hasta;
+
+		Tarea(Salsa20Key key, byte[] nonce, byte[] in, int inOff, byte[] out, int outOff, int desde, int hasta) {
+			this.key = key;
+			this.nonce = nonce;
+			this.in = in;
+			this.inOff = inOff;
+			this.out = out;
+			this.outOff = outOff;
+			this.desde = desde;
+			this.hasta = hasta;
+		}
+
+		@Override
+		protected void compute() {
+			int partes = (hasta - desde + tamParte - 1) / tamParte;
+
+			if (partes <= 1) {
+				cifrar();
+				return;
+			}
+
+			// Cortamos en un limite de parte, que siempre cae en un limite de bloque
+			int medio = desde + (partes / 2) * tamParte;
+			invokeAll(new Tarea(key, nonce, in, inOff, out, outOff, desde, medio),
+					new Tarea(key, nonce, in, inOff, out, outOff, medio, hasta));
+		}
+
+		// Cada tarea usa su propio estado, posicionado en el bloque donde empieza su rango. La key se carga una sola vez y se comparte
+		void cifrar() {
+			Salsa20Cipher cifrador = new Salsa20Cipher();
+			cifrador.init(key, nonce);
+			cifrador.irABloque(desde / Salsa20.TAM_BLOQUE);
+			cifrador.update(in, inOff + desde, hasta - desde, out, outOff + desde);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package salsa20;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+
+/*
+ * Cifrado autenticado Salsa20 + Poly1305 al estilo de secretbox de NaCl. Los primeros 32 bytes del bloque 0 de keystream son la key
+ * de un solo uso de Poly1305 y el mensaje se cifra con el keystream que sigue (desde el byte 32). El resultado es tag (16 bytes) || criptograma,
+ * y el tag es el Poly1305 del criptograma.
+ * El MAC se calcula en la misma pasada que el cifrado: el mensaje se recorre en tramos chicos y cada tramo se cifra y se autentica
+ * mientras todavia esta en cache. Al descifrar, el tag se compara en tiempo constante y si no coincide se borra la salida antes de lanzar
+ * la excepcion, asi que nunca se entrega texto plano sin autenticar.
+ * Cada nonce se puede usar una sola vez por key: repetirlo expone la key de Poly1305 y permite falsificar mensajes.
+ */
+public final class Salsa20Poly1305 {
+
+	public static final int TAM_TAG = Poly1305.TAM_TAG;
+
+	private static final int TAM_NONCE = 8;
+
+	// Tamaño de cada tramo que se cifra y autentica antes de pasar al siguiente
+	private static final int TAM_TRAMO = 8192;
+
+	// Estado de trabajo de cada hilo: se comparte entre todas las instancias, cada llamada lo reinicia con la key y el nonce
+	private static final ThreadLocal<Estado> ESTADO_POR_HILO = ThreadLocal.withInitial(Estado::new);
+
+	private final Salsa20Key key;
+
+	// Las rondas son las de la key (ver Salsa20Key)
+	public Salsa20Poly1305(Salsa20Key key) {
+		this.key = key;
+	}
+
+	public Salsa20Poly1305(byte[] key) {
+		this(new Salsa20Key(key));
+	}
+
+	/*
+	 * Cifra y autentica len bytes de in a partir de inOff y escribe tag || criptograma (len + 16 bytes) en out a partir de outOff.
+	 * in y out no se pueden solapar. Devuelve la cantidad de bytes escritos. Se puede llamar desde muchos hilos a la vez.
+	 */
+	public int seal(byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		if (nonce == null || nonce.length != TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + TAM_NONCE + " bytes");
+		}
+		return seal(key, nonce, 0, in, inOff, len, out, outOff);
+	}
+
+	// seal con cualquier key y el nonce de 8 bytes en nonce[offsetNonce..offsetNonce + 8). Lo usa tambien XSalsa20 con la subkey
+	static int seal(Salsa20Key key, byte[] nonce, int offsetNonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		if (len < 0 || inOff < 0 || outOff < 0 || inOff > in.length - len || outOff > out.length - len - TAM_TAG) {
+			throw new IndexOutOfBoundsException("Rango invalido para la entrada o la salida");
+		}
+
+		Estado estado = ESTADO_POR_HILO.get();
+		int posOut = outOff + TAM_TAG;
+		int cantidad;
+
+		estado.iniciar(key, nonce, offsetNonce);
+		for (int hecho = 0; hecho < len; hecho += cantidad) {
+			cantidad = Math.min(TAM_TRAMO, len - hecho);
+			estado.cifrador.update(in, inOff + hecho, cantidad, out, posOut + hecho);
+			estado.mac.update(out, posOut + hecho, cantidad);
+		}
+		estado.mac.doFinal(out, outOff);
+
+		return len + TAM_TAG;
+	}
+
+	public byte[] seal(byte[] nonce, byte[] textoPlano) {
+		byte[] resultado = new byte[textoPlano.length + TAM_TAG];
+
+		seal(nonce, textoPlano, 0, textoPlano.length, resultado, 0);
+		return resultado;
+	}
+
+	/*
+	 * Verifica y descifra len bytes de tag || criptograma de in a partir de inOff y escribe el texto plano (len - 16 bytes) en out
+	 * a partir de outOff. Si el tag no coincide, la salida queda en cero y se lanza AEADBadTagException. Devuelve la cantidad de bytes escritos.
+	 */
+	public int open(byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) throws AEADBadTagException {
+		if (nonce == null || nonce.length != TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + TAM_NONCE + " bytes");
+		}
+		return open(key, nonce, 0, in, inOff, len, out, outOff);
+	}
+
+	static int open(Salsa20Key key, byte[] nonce, int offsetNonce, byte[] in, int inOff, int len, byte[] out, int outOff)
+			throws AEADBadTagException {
+		if (len < TAM_TAG) {
+			throw new AEADBadTagException("El criptograma es mas corto que el tag");
+		}
+		if (inOff < 0 || outOff < 0 || inOff > in.length - len || outOff > out.length - (len - TAM_TAG)) {
+			throw new IndexOutOfBoundsException("Rango invalido para la entrada o la salida");
+		}
+
+		Estado estado = ESTADO_POR_HILO.get();
+		int largo = len - TAM_TAG;
+		int posIn = inOff + TAM_TAG;
+		int cantidad;
+
+		// Copiamos el tag recibido antes de escribir la salida, por si in y out son el mismo array
+		System.arraycopy(in, inOff, estado.tagRecibido, 0, TAM_TAG);
+
+		estado.iniciar(key, nonce, offsetNonce);
+		for (int hecho = 0; hecho < largo; hecho += cantidad) {
+			cantidad = Math.min(TAM_TRAMO, largo - hecho);
+			estado.mac.update(in, posIn + hecho, cantidad);
+			estado.cifrador.update(in, posIn + hecho, cantidad, out, outOff + hecho);
+		}
+		estado.mac.doFinal(estado.tagCalculado, 0);
+
+		if (!MessageDigest.isEqual(estado.tagCalculado, estado.tagRecibido)) {
+			Arrays.fill(out, outOff, outOff + largo, (byte) 0);
+			throw new AEADBadTagException("El tag no coincide: el mensaje fue modificado o la key o el nonce no son los correctos");
+		}
+		return largo;
+	}
+
+	public byte[] open(byte[] nonce, byte[] criptograma) throws AEADBadTagException {
+		if (criptograma.length < TAM_TAG) {
+			throw new AEADBadTagException("El criptograma es mas corto que el tag");
+		}
+
+		byte[] resultado = new byte[criptograma.length - TAM_TAG];
+		open(nonce, criptograma, 0, criptograma.length, resultado, 0);
+		return resultado;
+	}
+
+	// Cifrador, MAC y buffers reutilizados por cada hilo
+	private static final class Estado {
+		final Salsa20Cipher cifrador = new Salsa20Cipher();
+		final Poly1305 mac = new Poly1305();
+		final byte[] claveMac = new byte[Poly1305.TAM_KEY];
+		final byte[] tagCalculado = new byte[TAM_TAG];
+		final byte[] tagRecibido = new byte[TAM_TAG];
+
+		// Toma la key de Poly1305 de los primeros 32 bytes de keystream y deja el cifrador en el byte 32 del bloque 0
+		void iniciar(Salsa20Key key, byte[] nonce, int offsetNonce) {
+			cifrador.init(key, nonce, offsetNonce);
+			Arrays.fill(claveMac, (byte) 0);
+			cifrador.update(claveMac, 0, claveMac.length, claveMac, 0);
+			mac.init(claveMac, 0);
+			Arrays.fill(claveMac, (byte) 0);
+		}
+	}
+}
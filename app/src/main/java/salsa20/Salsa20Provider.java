@@ -0,0 +1,47 @@
+package salsa20;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Proveedor de JCA con los cifradores de Salsa20CipherSpi, para usarlos con javax.crypto.Cipher, CipherInputStream y CipherOutputStream:
+ *   Salsa20     (alias Salsa20-20)
+ *   Salsa20-12  (alias Salsa2012)
+ *   Salsa20-8   (alias Salsa208)
+ *   XSalsa20    (nonce de 24 bytes)
+ * Se registra en META-INF/services/java.security.Provider, asi que se puede agregar por nombre en java.security
+ * (security.provider.N=Salsa20) sin tocar el codigo, o instalar desde el programa con instalar().
+ * Las variantes se llaman Salsa20-12 y no Salsa20/12 porque en una transformacion la barra separa el modo y el padding;
+ * tambien se aceptan transformaciones como "Salsa20/None/NoPadding".
+ */
+public final class Salsa20Provider extends Provider {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String NOMBRE = "Salsa20";
+
+	public Salsa20Provider() {
+		super(NOMBRE, "1.0", "Salsa20, Salsa20/12, Salsa20/8 y XSalsa20 como cifradores en flujo");
+
+		Map<String, String> atributos = Map.of("SupportedModes", "NONE|ECB", "SupportedPaddings", "NOPADDING",
+				"SupportedKeyFormats", "RAW");
+
+		putService(new Service(this, "Cipher", "Salsa20", Salsa20CipherSpi.Rondas20.class.getName(), List.of("Salsa20-20"), atributos));
+		putService(new Service(this, "Cipher", "Salsa20-12", Salsa20CipherSpi.Rondas12.class.getName(), List.of("Salsa2012"), atributos));
+		putService(new Service(this, "Cipher", "Salsa20-8", Salsa20CipherSpi.Rondas8.class.getName(), List.of("Salsa208"), atributos));
+		putService(new Service(this, "Cipher", "XSalsa20", Salsa20CipherSpi.Extendido.class.getName(), List.of(), atributos));
+	}
+
+	// Agrega el proveedor al final de la lista de Security si todavia no esta. Devuelve el proveedor instalado
+	public static synchronized Provider instalar() {
+		Provider instalado = Security.getProvider(NOMBRE);
+
+		if (instalado == null) {
+			instalado = new Salsa20Provider();
+			Security.addProvider(instalado);
+		}
+		return instalado;
+	}
+}
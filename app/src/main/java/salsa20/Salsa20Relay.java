@@ -0,0 +1,362 @@
+package salsa20;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Relay TCP que cifra: acepta conexiones, abre una conexion al destino por cada una y pasa los bytes en los dos sentidos,
+ * cifrando o descifrando al vuelo. Sirve para poner un servicio TCP existente detras de dos relays, uno de cada lado:
+ *
+ *   cliente --(texto plano)--> relay "cifrar" --(cifrado)--> relay "descifrar" --(texto plano)--> servicio
+ *
+ * El relay en modo cifrar cifra lo que recibe del cliente y descifra lo que vuelve del destino; en modo descifrar es al reves.
+ * Cada sentido de cada conexion es un flujo propio de XSalsa20 (un Salsa20Cipher por sentido, ver XSalsa20): quien cifra elige
+ * un nonce de 24 bytes al azar y lo manda antes del primer byte cifrado, y quien descifra lo lee primero. Asi nunca se repite
+ * el keystream aunque las dos puntas usen la misma key para todas las conexiones.
+ * Solo da confidencialidad: no detecta si alguien modifica los bytes en el camino (para eso ver Salsa20Poly1305).
+ *
+ * Cada sentido corre en su propio hilo virtual (o de plataforma si la JVM no los tiene, ver VirtualThreads) con I/O bloqueante,
+ * y los buffers salen de un BufferPool compartido. Se cuentan las conexiones y los bytes y se mide la latencia de cada tramo
+ * (cifrarlo y escribirlo en el otro extremo) en un Histograma.
+ *
+ * Por linea de comandos:
+ *   java -cp salsa20.jar salsa20.Salsa20Relay cifrar|descifrar --key <32 caracteres> --escuchar [host:]puerto --destino host:puerto
+ *        [--rondas 20|12|8] [--buffer <bytes>] [--reporte <segundos>]
+ */
+public class Salsa20Relay implements Closeable {
+
+	public static final int TAM_BUFFER_POR_DEFECTO = 16 * 1024;
+
+	private static final String USO = "Uso: Salsa20Relay cifrar|descifrar --key <32 caracteres> --escuchar [host:]puerto "
+			+ "--destino host:puerto [--rondas 20|12|8] [--buffer <bytes>] [--reporte <segundos>]";
+
+	// Conexiones pendientes que acepta el sistema operativo antes de que las tome el hilo que acepta
+	private static final int BACKLOG = 4096;
+
+	// Buffers libres que guarda el pool, suficientes para unas mil conexiones sin crear buffers nuevos
+	private static final int BUFFERS_RETENIDOS = 2048;
+
+	private final XSalsa20 xsalsa;
+	private final boolean cifrarHaciaDestino;
+	private final InetSocketAddress destino;
+	private final BufferPool buffers;
+	private final SecureRandom random = new SecureRandom();
+
+	private final ExecutorService hilos = VirtualThreads.porTarea("salsa20-relay");
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+	private ServerSocket servidor;
+	private volatile boolean cerrado;
+
+	private final AtomicInteger conexionesActivas = new AtomicInteger();
+	private final LongAdder conexionesTotales = new LongAdder();
+	private final LongAdder bytesHaciaDestino = new LongAdder();
+	private final LongAdder bytesHaciaCliente = new LongAdder();
+	private final Histograma latenciaTramos = new Histograma();
+
+	// cifrarHaciaDestino: true para cifrar lo que va al destino (modo cifrar), false para descifrarlo (modo descifrar)
+	public Salsa20Relay(Salsa20Key key, boolean cifrarHaciaDestino, InetSocketAddress destino) {
+		this(key, cifrarHaciaDestino, destino, TAM_BUFFER_POR_DEFECTO);
+	}
+
+	public Salsa20Relay(Salsa20Key key, boolean cifrarHaciaDestino, InetSocketAddress destino, int tamBuffer) {
+		this.xsalsa = new XSalsa20(key);
+		this.cifrarHaciaDestino = cifrarHaciaDestino;
+		this.destino = destino;
+		this.buffers = new BufferPool(tamBuffer, BUFFERS_RETENIDOS);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || (!args[0].equals("cifrar") && !args[0].equals("descifrar"))) {
+			salirConError(USO);
+		}
+
+		String keyString = null;
+		InetSocketAddress escuchar = null, destino = null;
+		int rondas = Salsa20.RONDAS;
+		int tamBuffer = TAM_BUFFER_POR_DEFECTO;
+		int reporte = 10;
+
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+			case "--key":
+				keyString = valor(args, ++i);
+				break;
+			case "--escuchar":
+				escuchar = direccion(valor(args, ++i), "0.0.0.0");
+				break;
+			case "--destino":
+				destino = direccion(valor(args, ++i), null);
+				break;
+			case "--rondas":
+				rondas = Integer.parseInt(valor(args, ++i));
+				break;
+			case "--buffer":
+				tamBuffer = Integer.parseInt(valor(args, ++i));
+				break;
+			case "--reporte":
+				reporte = Integer.parseInt(valor(args, ++i));
+				break;
+			default:
+				salirConError(USO);
+			}
+		}
+
+		if (keyString == null || keyString.getBytes().length != 32) {
+			salirConError("La key debe tener una longitud de 32 caracteres");
+		}
+		if (rondas != 8 && rondas != 12 && rondas != 20) {
+			salirConError("La cantidad de rondas debe ser 8, 12 o 20");
+		}
+		if (escuchar == null || destino == null || tamBuffer <= 0 || reporte <= 0) {
+			salirConError(USO);
+		}
+
+		Salsa20Relay relay = new Salsa20Relay(new Salsa20Key(keyString.getBytes(), rondas), args[0].equals("cifrar"), destino, tamBuffer);
+		relay.iniciar(escuchar);
+		System.out.println("Escuchando en " + escuchar + ", destino " + destino + (VirtualThreads.disponibles() ? " (hilos virtuales)" : ""));
+
+		// Cada tanto mostramos las conexiones, el throughput desde el reporte anterior y la latencia de los tramos
+		long bytesAntes = 0, bytes;
+		while (true) {
+			Thread.sleep(reporte * 1000L);
+			bytes = relay.bytesHaciaDestino() + relay.bytesHaciaCliente();
+			Histograma h = relay.latenciaTramos();
+			System.out.printf("Conexiones: %d activas, %d en total. %.1f MB/s. Tramos: %d, p50 %.1f us, p99 %.1f us, max %.1f us%n",
+					relay.conexionesActivas(), relay.conexionesTotales(), (bytes - bytesAntes) / 1e6 / reporte, h.cantidad(),
+					h.percentilNanos(0.5) / 1e3, h.percentilNanos(0.99) / 1e3, h.maximoNanos() / 1e3);
+			bytesAntes = bytes;
+		}
+	}
+
+	// Empieza a aceptar conexiones en la direccion indicada (con puerto 0 se elige uno libre, ver puerto)
+	public synchronized void iniciar(InetSocketAddress escuchar) throws IOException {
+		if (servidor != null) {
+			throw new IllegalStateException("El relay ya fue iniciado");
+		}
+
+		servidor = new ServerSocket();
+		servidor.setReuseAddress(true);
+		servidor.bind(escuchar, BACKLOG);
+
+		Thread aceptador = VirtualThreads.hilosDaemon("salsa20-relay-aceptar").newThread(this::aceptar);
+		aceptador.start();
+	}
+
+	// Puerto en el que escucha el relay
+	public int puerto() {
+		return servidor.getLocalPort();
+	}
+
+	public int conexionesActivas() {
+		return conexionesActivas.get();
+	}
+
+	public long conexionesTotales() {
+		return conexionesTotales.sum();
+	}
+
+	// Bytes recibidos de los clientes y pasados al destino
+	public long bytesHaciaDestino() {
+		return bytesHaciaDestino.sum();
+	}
+
+	// Bytes recibidos del destino y devueltos a los clientes
+	public long bytesHaciaCliente() {
+		return bytesHaciaCliente.sum();
+	}
+
+	// Latencia de cada tramo: desde que se termina de leer hasta que se termina de escribir, cifrado incluido
+	public Histograma latenciaTramos() {
+		return latenciaTramos;
+	}
+
+	// Deja de aceptar conexiones y corta las que esten abiertas
+	@Override
+	public void close() throws IOException {
+		cerrado = true;
+		if (servidor != null) {
+			servidor.close();
+		}
+		for (Socket socket : sockets) {
+			cerrarSinError(socket);
+		}
+		hilos.shutdownNow();
+	}
+
+	private void aceptar() {
+		Socket cliente;
+
+		while (!cerrado) {
+			try {
+				cliente = servidor.accept();
+			} catch (IOException e) {
+				if (!cerrado) {
+					System.err.println("Error aceptando conexiones: " + e);
+				}
+				return;
+			}
+
+			Socket aceptado = cliente;
+			try {
+				hilos.execute(() -> atender(aceptado));
+			} catch (RejectedExecutionException e) {
+				// Se cerro el relay mientras se aceptaba la conexion
+				cerrarSinError(aceptado);
+				return;
+			}
+		}
+	}
+
+	// Conecta con el destino y pasa los datos en los dos sentidos: este hilo hacia el destino y otro hacia el cliente
+	private void atender(Socket cliente) {
+		Socket haciaDestino = new Socket();
+		Conexion conexion = new Conexion(cliente, haciaDestino);
+
+		conexionesActivas.incrementAndGet();
+		conexionesTotales.increment();
+		sockets.add(cliente);
+		sockets.add(haciaDestino);
+		try {
+			cliente.setTcpNoDelay(true);
+			haciaDestino.setTcpNoDelay(true);
+			haciaDestino.connect(destino);
+		} catch (IOException e) {
+			System.err.println("No se pudo conectar con " + destino + ": " + e.getMessage());
+			conexion.cerrar();
+			return;
+		}
+
+		try {
+			hilos.execute(() -> conexion.terminarSentido(transferir(haciaDestino, cliente, !cifrarHaciaDestino, bytesHaciaCliente)));
+		} catch (RejectedExecutionException e) {
+			// Se cerro el relay mientras se conectaba con el destino
+			conexion.cerrar();
+			return;
+		}
+		conexion.terminarSentido(transferir(cliente, haciaDestino, cifrarHaciaDestino, bytesHaciaDestino));
+	}
+
+	/*
+	 * Pasa lo que llega de origen a destino hasta el final del flujo, cifrando si cifrar es true (primero se manda el nonce) o descifrando
+	 * si no (primero se lee el nonce). Al terminar cierra la escritura hacia destino para que el otro extremo vea el final.
+	 * Devuelve el error que corto la transferencia, o null si termino bien.
+	 */
+	private IOException transferir(Socket origen, Socket destino, boolean cifrar, LongAdder contador) {
+		byte[] buffer = buffers.tomar();
+		byte[] nonce = new byte[XSalsa20.TAM_NONCE];
+		Salsa20Cipher cifrador;
+		long inicio;
+		int leidos;
+
+		try {
+			InputStream entrada = origen.getInputStream();
+			OutputStream salida = destino.getOutputStream();
+
+			if (cifrar) {
+				random.nextBytes(nonce);
+				salida.write(nonce);
+			} else {
+				leidos = entrada.readNBytes(nonce, 0, nonce.length);
+				if (leidos == 0) {
+					// El otro extremo cerro sin mandar nada
+					destino.shutdownOutput();
+					return null;
+				}
+				if (leidos < nonce.length) {
+					throw new EOFException("El flujo cifrado termina antes del nonce");
+				}
+			}
+			cifrador = xsalsa.newCipher(nonce);
+
+			while ((leidos = entrada.read(buffer)) >= 0) {
+				inicio = System.nanoTime();
+				cifrador.update(buffer, 0, leidos, buffer, 0);
+				salida.write(buffer, 0, leidos);
+				latenciaTramos.registrar(System.nanoTime() - inicio, leidos);
+				contador.add(leidos);
+			}
+			destino.shutdownOutput();
+			return null;
+		} catch (IOException e) {
+			return e;
+		} finally {
+			buffers.devolver(buffer);
+		}
+	}
+
+	// Los dos sockets de una conexion. Se cierran cuando terminan los dos sentidos, o enseguida si uno falla
+	private final class Conexion {
+		private final Socket cliente;
+		private final Socket haciaDestino;
+		private final AtomicInteger sentidosAbiertos = new AtomicInteger(2);
+
+		Conexion(Socket cliente, Socket haciaDestino) {
+			this.cliente = cliente;
+			this.haciaDestino = haciaDestino;
+		}
+
+		void terminarSentido(IOException error) {
+			// Si un sentido falla el otro se queda esperando datos que no van a llegar: cerrar los sockets lo despierta
+			if (error != null && !cerrado && !(error instanceof SocketException)) {
+				System.err.println("Error en una conexion: " + error);
+			}
+			if (sentidosAbiertos.decrementAndGet() == 0 || error != null) {
+				cerrar();
+			}
+		}
+
+		void cerrar() {
+			if (sockets.remove(cliente)) {
+				conexionesActivas.decrementAndGet();
+			}
+			sockets.remove(haciaDestino);
+			cerrarSinError(cliente);
+			cerrarSinError(haciaDestino);
+		}
+	}
+
+	private static void cerrarSinError(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// No hay nada mas que hacer con un socket que no se puede cerrar
+		}
+	}
+
+	// "host:puerto" o "puerto", usando hostPorDefecto si falta el host
+	static InetSocketAddress direccion(String texto, String hostPorDefecto) {
+		int separador = texto.lastIndexOf(':');
+		String host = separador >= 0 ? texto.substring(0, separador) : hostPorDefecto;
+
+		if (host == null) {
+			salirConError("Falta el host en " + texto);
+		}
+		return new InetSocketAddress(host, Integer.parseInt(texto.substring(separador + 1)));
+	}
+
+	private static String valor(String[] args, int i) {
+		if (i >= args.length) {
+			salirConError("Falta el valor de " + args[i - 1]);
+		}
+		return args[i];
+	}
+
+	private static void salirConError(String mensaje) {
+		System.err.println(mensaje);
+		System.exit(2);
+	}
+}
@@ -0,0 +1,30 @@
+package salsa20;
+
+// Motor de keystream escalar: un bloque por llamada al nucleo de Salsa20
+final class ScalarKeystreamEngine implements KeystreamEngine {
+
+	static final ScalarKeystreamEngine INSTANCIA = new ScalarKeystreamEngine();
+
+	private ScalarKeystreamEngine() {
+	}
+
+	@Override
+	public int bloquesPorLlamada() {
+		return 1;
+	}
+
+	@Override
+	public void generarBloques(int[] estado, int rondas, long contador, int cantidad, byte[] salida, int offset) {
+		for (int i = 0; i < cantidad; i++) {
+			estado[8] = (int) contador;
+			estado[9] = (int) (contador >>> 32);
+			Salsa20.generarBloque(estado, rondas, salida, offset + i * Salsa20.TAM_BLOQUE);
+			contador++;
+		}
+	}
+
+	@Override
+	public String nombre() {
+		return "escalar";
+	}
+}
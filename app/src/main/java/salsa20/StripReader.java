@@ -0,0 +1,26 @@
+package salsa20;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/*
+ * Lector de imagenes fila por fila que recorre el archivo una sola vez. Las filas salen con 4 bytes por pixel (A, R, G, B),
+ * igual que con ImageManager.convertirBytes.
+ */
+interface StripReader extends Closeable {
+
+	int ancho();
+
+	int alto();
+
+	// Lee las proximas filas y las deja en pixels a partir de offset
+	void leerFilas(byte[] pixels, int offset, int cantidad) throws IOException;
+
+	// Abre el archivo con el lector que corresponda a su formato (PNG, BMP o PAM). Devuelve null si ninguno lo soporta, para usar ImageIO
+	static StripReader abrir(Path path) throws IOException {
+		StripReader lector = PngStripReader.abrir(path);
+
+		return lector != null ? lector : RawStripReader.abrir(path);
+	}
+}
@@ -0,0 +1,25 @@
+package salsa20;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Escritor de imagenes fila por fila, sin tener nunca la imagen completa en memoria. Los pixeles llegan con 4 bytes por pixel
+ * (A, R, G, B), como los usa ImageManager.
+ */
+interface StripWriter {
+
+	// Agrega filas a la imagen. pixels tiene filas * ancho pixeles a partir de offset
+	void escribirFilas(byte[] pixels, int offset, int filas) throws IOException;
+
+	// Escribe el final del archivo. No cierra el stream de salida
+	void terminar() throws IOException;
+
+	// Escritor para el formato pedido. nivelCompresion (de -1, el por defecto de deflate, a 9) solo se usa en PNG
+	static StripWriter crear(OutputStream out, int ancho, int alto, FormatoImagen formato, int nivelCompresion) throws IOException {
+		if (formato == FormatoImagen.PNG) {
+			return new PngStripWriter(out, ancho, alto, nivelCompresion);
+		}
+		return new RawStripWriter(out, ancho, alto, formato);
+	}
+}
@@ -0,0 +1,212 @@
+package salsa20;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/*
+ * Cifra (o descifra) una imagen por franjas horizontales, sin cargarla nunca entera en memoria. Cada franja se lee con
+ * ImageReader.read y una region de origen, se pasa a bytes con ImageManager, se cifra con el keystream que le corresponde
+ * a su posicion dentro de la imagen y se agrega a la imagen de salida. El resultado es el mismo que leer la imagen completa,
+ * usar Salsa20.encriptar y ImageManager.escribirImagen, pero la memoria usada depende del tamaño de la franja.
+ * La salida es PNG (con el nivel de compresion elegido), BMP o PAM, ver FormatoImagen. Los PNG RGB y RGBA de 8 bits y los BMP y PAM
+ * sin comprimir se leen con un StripReader, que recorre el archivo una sola vez; el resto de los formatos pasa por el ImageReader de ImageIO.
+ * Despues de cada franja se informa el avance a un ProgresoListener y, si el hilo fue interrumpido, la operacion se corta
+ * con una InterruptedIOException y se borra el archivo de salida incompleto.
+ *
+ * Si se pasa un ejecutor de computo, el hilo que llama solo lee, decodifica, codifica y escribe, y el keystream y el XOR de cada franja
+ * se hacen en ese ejecutor (ver BatchCli, que lee y escribe en hilos virtuales y cifra en un pool fijo).
+ */
+public class TiledImageCipher {
+
+	public static final int FILAS_POR_FRANJA_POR_DEFECTO = 64;
+
+	private final int filasPorFranja;
+	private final FormatoImagen formato;
+	private final int nivelCompresion;
+	private final ImageManager imgManager = new ImageManager();
+
+	public TiledImageCipher() {
+		this(FILAS_POR_FRANJA_POR_DEFECTO);
+	}
+
+	public TiledImageCipher(int filasPorFranja) {
+		this(filasPorFranja, FormatoImagen.PNG, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	// Salida en el formato indicado. nivelCompresion (de 0, solo almacenar, a 9, o -1 para el por defecto) solo se usa en PNG
+	public TiledImageCipher(int filasPorFranja, FormatoImagen formato, int nivelCompresion) {
+		if (filasPorFranja <= 0) {
+			throw new IllegalArgumentException("La cantidad de filas por franja debe ser positiva");
+		}
+		if (nivelCompresion < Deflater.DEFAULT_COMPRESSION || nivelCompresion > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("El nivel de compresion debe estar entre -1 y 9");
+		}
+		this.filasPorFranja = filasPorFranja;
+		this.formato = formato;
+		this.nivelCompresion = nivelCompresion;
+	}
+
+	public FormatoImagen formato() {
+		return formato;
+	}
+
+	// Cifra la imagen en origen con la key (y el nonce fijo de Salsa20) y guarda el resultado en destino, en el formato de salida elegido
+	public void cifrarImagen(String origen, String destino, byte[] key) throws IOException {
+		cifrarImagen(origen, destino, key, ProgresoListener.NINGUNO);
+	}
+
+	public void cifrarImagen(String origen, String destino, byte[] key, ProgresoListener listener) throws IOException {
+		cifrarImagen(origen, destino, new Salsa20Key(key), listener);
+	}
+
+	// Igual que el anterior con una key ya cargada, que ademas fija las rondas (ver Salsa20Key)
+	public void cifrarImagen(String origen, String destino, Salsa20Key key, ProgresoListener listener) throws IOException {
+		cifrarImagen(origen, destino, key, listener, null);
+	}
+
+	// Igual que el anterior pero el keystream y el XOR de cada franja corren en computo (si es null, en el hilo que llama)
+	public void cifrarImagen(String origen, String destino, Salsa20Key key, ProgresoListener listener, ExecutorService computo)
+			throws IOException {
+		try {
+			cifrar(origen, destino, key, listener, computo);
+		} catch (InterruptedIOException e) {
+			new File(destino).delete();
+			throw e;
+		}
+	}
+
+	private void cifrar(String origen, String destino, Salsa20Key key, ProgresoListener listener, ExecutorService computo)
+			throws IOException {
+		Salsa20Cipher cifrador = key.newCipher(Salsa20.NONCE);
+
+		// Camino rapido para las imagenes que se pueden leer fila por fila
+		StripReader franjas = StripReader.abrir(Paths.get(origen));
+		if (franjas != null) {
+			try (franjas; OutputStream salida = new BufferedOutputStream(new FileOutputStream(destino))) {
+				cifrarFranjas(franjas, cifrador, salida, listener, computo);
+			}
+			return;
+		}
+
+		try (ImageInputStream entrada = ImageIO.createImageInputStream(new File(origen));
+				OutputStream salida = new BufferedOutputStream(new FileOutputStream(destino))) {
+			if (entrada == null) {
+				throw new IOException("No se pudo abrir " + origen);
+			}
+
+			Iterator<ImageReader> lectores = ImageIO.getImageReaders(entrada);
+			if (!lectores.hasNext()) {
+				throw new IOException("Formato de imagen no soportado: " + origen);
+			}
+
+			ImageReader lector = lectores.next();
+			try {
+				lector.setInput(entrada, true, true);
+				cifrarFranjas(lector, cifrador, salida, listener, computo);
+			} finally {
+				lector.dispose();
+			}
+		}
+	}
+
+	private void cifrarFranjas(StripReader lector, Salsa20Cipher cifrador, OutputStream salida, ProgresoListener listener,
+			ExecutorService computo) throws IOException {
+		int ancho = lector.ancho();
+		int alto = lector.alto();
+		int filas;
+		StripWriter escritor = StripWriter.crear(salida, ancho, alto, formato, nivelCompresion);
+		byte[] pixels = new byte[Math.min(filasPorFranja, alto) * ancho * 4];
+		long inicio;
+
+		// Las franjas se leen en orden, asi que el keystream avanza solo y no hace falta posicionar el cifrador
+		for (int y = 0; y < alto; y += filas) {
+			filas = Math.min(filasPorFranja, alto - y);
+			inicio = Metricas.inicio();
+			lector.leerFilas(pixels, 0, filas);
+			Metricas.registrar(Etapa.DECODIFICAR, inicio, filas * ancho * 4);
+
+			cifrarFranja(cifrador, pixels, filas * ancho * 4, computo);
+
+			inicio = Metricas.inicio();
+			escritor.escribirFilas(pixels, 0, filas);
+			Metricas.registrar(Etapa.CODIFICAR, inicio, filas * ancho * 4);
+			terminarFranja(y + filas, ancho, alto, listener);
+		}
+		escritor.terminar();
+	}
+
+	private void cifrarFranjas(ImageReader lector, Salsa20Cipher cifrador, OutputStream salida, ProgresoListener listener,
+			ExecutorService computo) throws IOException {
+		int ancho = lector.getWidth(0);
+		int alto = lector.getHeight(0);
+		int filas;
+		ImageReadParam param = lector.getDefaultReadParam();
+		StripWriter escritor = StripWriter.crear(salida, ancho, alto, formato, nivelCompresion);
+		BufferedImage franja;
+		byte[] pixels;
+		long inicio;
+
+		for (int y = 0; y < alto; y += filas) {
+			filas = Math.min(filasPorFranja, alto - y);
+
+			// Leemos solo las filas de esta franja y las pasamos a bytes (4 por pixel)
+			param.setSourceRegion(new Rectangle(0, y, ancho, filas));
+			inicio = Metricas.inicio();
+			franja = lector.read(0, param);
+			Metricas.registrar(Etapa.DECODIFICAR, inicio, filas * ancho * 4);
+			pixels = imgManager.convertirBytes(franja);
+
+			// El keystream de la franja empieza en el byte y * ancho * 4 de la imagen completa
+			cifrador.seek((long) y * ancho * 4);
+			cifrarFranja(cifrador, pixels, pixels.length, computo);
+
+			inicio = Metricas.inicio();
+			escritor.escribirFilas(pixels, 0, filas);
+			Metricas.registrar(Etapa.CODIFICAR, inicio, pixels.length);
+			terminarFranja(y + filas, ancho, alto, listener);
+		}
+		escritor.terminar();
+	}
+
+	// XOR de la franja con el keystream, en el hilo que llama o en el ejecutor de computo esperando a que termine
+	private static void cifrarFranja(Salsa20Cipher cifrador, byte[] pixels, int len, ExecutorService computo) throws IOException {
+		if (computo == null) {
+			cifrador.update(pixels, 0, len, pixels, 0);
+			return;
+		}
+
+		try {
+			computo.submit(() -> cifrador.update(pixels, 0, len, pixels, 0)).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Operacion cancelada");
+		} catch (ExecutionException e) {
+			throw new IOException("Fallo el cifrado de la franja", e.getCause());
+		}
+	}
+
+	// Informa el avance despues de cada franja y corta la operacion si se pidio cancelarla (interrumpiendo el hilo)
+	private void terminarFranja(int filasListas, int ancho, int alto, ProgresoListener listener) throws InterruptedIOException {
+		listener.progreso((long) filasListas * ancho * 4, (long) alto * ancho * 4);
+
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("Operacion cancelada");
+		}
+	}
+}
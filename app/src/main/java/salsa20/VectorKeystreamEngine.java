@@ -0,0 +1,199 @@
+package salsa20;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * Motor de keystream que usa la Vector API para calcular varios bloques consecutivos a la vez: tantos como carriles de 32 bits tenga
+ * la forma de vector preferida de la CPU (4 con SSE/NEON, 8 con AVX2, 16 con AVX-512), o 4, 8 o 16 si se piden explicitamente. Cada vector guarda
+ * la misma celda de la matriz de estado para bloques distintos (un bloque por carril), por lo que las rondas son exactamente
+ * las del nucleo escalar aplicadas carril a carril. Las celdas solo difieren en el contador (celdas 8 y 9), o tambien en el nonce
+ * (celdas 6 y 7) cuando los bloques son de mensajes distintos.
+ * Solo se carga si la JVM tiene el modulo jdk.incubator.vector, ver KeystreamEngine.vectorial.
+ */
+final class VectorKeystreamEngine implements KeystreamEngine {
+
+	// Vista para escribir enteros little-endian en el array de salida durante la transposicion
+	private static final VarHandle INT_ARRAY = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final VectorSpecies<Integer> especie;
+	private final int carriles;
+
+	// Celdas de salida antes de transponerlas a bloques. Una por hilo, porque el motor se comparte entre cifradores
+	private final ThreadLocal<int[]> celdasPorHilo;
+
+	// Celdas 6 a 9 (nonce y contador) de cada carril, una fila por celda
+	private final ThreadLocal<int[]> variablesPorHilo;
+
+	// Un bloque por carril de la forma de vector preferida, que es la que el JIT compila a instrucciones SIMD reales
+	VectorKeystreamEngine() {
+		this(IntVector.SPECIES_PREFERRED);
+	}
+
+	// Forma fija de 128, 256 o 512 bits. Una forma mas ancha que la de la CPU funciona pero no se compila a SIMD y es mucho mas lenta
+	VectorKeystreamEngine(int bloques) {
+		this(especie(bloques));
+	}
+
+	private VectorKeystreamEngine(VectorSpecies<Integer> especie) {
+		this.especie = especie;
+		carriles = especie.length();
+		celdasPorHilo = ThreadLocal.withInitial(() -> new int[16 * carriles]);
+		variablesPorHilo = ThreadLocal.withInitial(() -> new int[4 * carriles]);
+	}
+
+	private static VectorSpecies<Integer> especie(int bloques) {
+		if (bloques != 4 && bloques != 8 && bloques != 16) {
+			throw new IllegalArgumentException("El motor vectorial calcula 4, 8 o 16 bloques a la vez");
+		}
+		return VectorSpecies.of(int.class, VectorShape.forBitSize(bloques * Integer.SIZE));
+	}
+
+	@Override
+	public int bloquesPorLlamada() {
+		return carriles;
+	}
+
+	@Override
+	public String nombre() {
+		return "vector" + carriles;
+	}
+
+	@Override
+	public void generarBloques(int[] estado, int rondas, long contador, int cantidad, byte[] salida, int offset) {
+		int[] filas = variablesPorHilo.get();
+		int bloques, b;
+
+		// Bloques de a grupos de tantos como carriles. El ultimo grupo puede estar incompleto
+		while (cantidad > 0) {
+			bloques = Math.min(cantidad, carriles);
+
+			// El carril b lleva el bloque contador + b, con el mismo nonce que el estado
+			for (b = 0; b < carriles; b++) {
+				filas[b] = estado[6];
+				filas[carriles + b] = estado[7];
+				filas[2 * carriles + b] = (int) (contador + b);
+				filas[3 * carriles + b] = (int) ((contador + b) >>> 32);
+			}
+			generarGrupo(estado, rondas, filas, bloques, salida, offset);
+
+			contador += bloques;
+			offset += bloques * Salsa20.TAM_BLOQUE;
+			cantidad -= bloques;
+		}
+	}
+
+	@Override
+	public void generarBloques(int[] estado, int rondas, int[] variables, int cantidad, byte[] salida, int offset) {
+		int[] filas = variablesPorHilo.get();
+		int bloques, b, j;
+
+		// Cada bloque trae sus celdas 6 a 9. Los carriles sobrantes del ultimo grupo no se usan
+		for (int desde = 0; desde < cantidad; desde += carriles) {
+			bloques = Math.min(cantidad - desde, carriles);
+			for (b = 0; b < bloques; b++) {
+				for (j = 0; j < 4; j++) {
+					filas[j * carriles + b] = variables[4 * (desde + b) + j];
+				}
+			}
+			generarGrupo(estado, rondas, filas, bloques, salida, offset + desde * Salsa20.TAM_BLOQUE);
+		}
+	}
+
+	/*
+	 * Calcula un grupo de bloques que comparten todas las celdas del estado salvo las 6 a 9 (nonce y contador), que vienen
+	 * en filas con una fila por celda y un valor por carril
+	 */
+	private void generarGrupo(int[] estado, int rondas, int[] filas, int bloques, byte[] salida, int offset) {
+		int[] celdas = celdasPorHilo.get();
+		int i, b, w;
+
+		IntVector v0 = IntVector.broadcast(especie, estado[0]), v1 = IntVector.broadcast(especie, estado[1]);
+		IntVector v2 = IntVector.broadcast(especie, estado[2]), v3 = IntVector.broadcast(especie, estado[3]);
+		IntVector v4 = IntVector.broadcast(especie, estado[4]), v5 = IntVector.broadcast(especie, estado[5]);
+		IntVector v6 = IntVector.fromArray(especie, filas, 0), v7 = IntVector.fromArray(especie, filas, carriles);
+		IntVector v8 = IntVector.fromArray(especie, filas, 2 * carriles), v9 = IntVector.fromArray(especie, filas, 3 * carriles);
+		IntVector v10 = IntVector.broadcast(especie, estado[10]), v11 = IntVector.broadcast(especie, estado[11]);
+		IntVector v12 = IntVector.broadcast(especie, estado[12]), v13 = IntVector.broadcast(especie, estado[13]);
+		IntVector v14 = IntVector.broadcast(especie, estado[14]), v15 = IntVector.broadcast(especie, estado[15]);
+
+		IntVector x0 = v0, x1 = v1, x2 = v2, x3 = v3, x4 = v4, x5 = v5, x6 = v6, x7 = v7;
+		IntVector x8 = v8, x9 = v9, x10 = v10, x11 = v11, x12 = v12, x13 = v13, x14 = v14, x15 = v15;
+
+		// Las mismas rondas que Salsa20.generarBloque, con cada operacion aplicada a todos los carriles
+		for (i = 0; i < rondas; i += 2) {
+			// COLUMNA 1
+			x4 = x4.lanewise(VectorOperators.XOR, x0.add(x12).lanewise(VectorOperators.ROL, 7));
+			x8 = x8.lanewise(VectorOperators.XOR, x4.add(x0).lanewise(VectorOperators.ROL, 9));
+			x12 = x12.lanewise(VectorOperators.XOR, x8.add(x4).lanewise(VectorOperators.ROL, 13));
+			x0 = x0.lanewise(VectorOperators.XOR, x12.add(x8).lanewise(VectorOperators.ROL, 18));
+			// COLUMNA 2
+			x9 = x9.lanewise(VectorOperators.XOR, x5.add(x1).lanewise(VectorOperators.ROL, 7));
+			x13 = x13.lanewise(VectorOperators.XOR, x9.add(x5).lanewise(VectorOperators.ROL, 9));
+			x1 = x1.lanewise(VectorOperators.XOR, x13.add(x9).lanewise(VectorOperators.ROL, 13));
+			x5 = x5.lanewise(VectorOperators.XOR, x1.add(x13).lanewise(VectorOperators.ROL, 18));
+			// COLUMNA 3
+			x14 = x14.lanewise(VectorOperators.XOR, x10.add(x6).lanewise(VectorOperators.ROL, 7));
+			x2 = x2.lanewise(VectorOperators.XOR, x14.add(x10).lanewise(VectorOperators.ROL, 9));
+			x6 = x6.lanewise(VectorOperators.XOR, x2.add(x14).lanewise(VectorOperators.ROL, 13));
+			x10 = x10.lanewise(VectorOperators.XOR, x6.add(x2).lanewise(VectorOperators.ROL, 18));
+			// COLUMNA 4
+			x3 = x3.lanewise(VectorOperators.XOR, x15.add(x11).lanewise(VectorOperators.ROL, 7));
+			x7 = x7.lanewise(VectorOperators.XOR, x3.add(x15).lanewise(VectorOperators.ROL, 9));
+			x11 = x11.lanewise(VectorOperators.XOR, x7.add(x3).lanewise(VectorOperators.ROL, 13));
+			x15 = x15.lanewise(VectorOperators.XOR, x11.add(x7).lanewise(VectorOperators.ROL, 18));
+
+			// FILA 1
+			x1 = x1.lanewise(VectorOperators.XOR, x0.add(x3).lanewise(VectorOperators.ROL, 7));
+			x2 = x2.lanewise(VectorOperators.XOR, x1.add(x0).lanewise(VectorOperators.ROL, 9));
+			x3 = x3.lanewise(VectorOperators.XOR, x2.add(x1).lanewise(VectorOperators.ROL, 13));
+			x0 = x0.lanewise(VectorOperators.XOR, x3.add(x2).lanewise(VectorOperators.ROL, 18));
+			// FILA 2
+			x6 = x6.lanewise(VectorOperators.XOR, x5.add(x4).lanewise(VectorOperators.ROL, 7));
+			x7 = x7.lanewise(VectorOperators.XOR, x6.add(x5).lanewise(VectorOperators.ROL, 9));
+			x4 = x4.lanewise(VectorOperators.XOR, x7.add(x6).lanewise(VectorOperators.ROL, 13));
+			x5 = x5.lanewise(VectorOperators.XOR, x4.add(x7).lanewise(VectorOperators.ROL, 18));
+			// FILA 3
+			x11 = x11.lanewise(VectorOperators.XOR, x10.add(x9).lanewise(VectorOperators.ROL, 7));
+			x8 = x8.lanewise(VectorOperators.XOR, x11.add(x10).lanewise(VectorOperators.ROL, 9));
+			x9 = x9.lanewise(VectorOperators.XOR, x8.add(x11).lanewise(VectorOperators.ROL, 13));
+			x10 = x10.lanewise(VectorOperators.XOR, x9.add(x8).lanewise(VectorOperators.ROL, 18));
+			// FILA 4
+			x12 = x12.lanewise(VectorOperators.XOR, x15.add(x14).lanewise(VectorOperators.ROL, 7));
+			x13 = x13.lanewise(VectorOperators.XOR, x12.add(x15).lanewise(VectorOperators.ROL, 9));
+			x14 = x14.lanewise(VectorOperators.XOR, x13.add(x12).lanewise(VectorOperators.ROL, 13));
+			x15 = x15.lanewise(VectorOperators.XOR, x14.add(x13).lanewise(VectorOperators.ROL, 18));
+		}
+
+		// Sumamos el estado de entrada y guardamos cada celda como una fila de carriles
+		x0.add(v0).intoArray(celdas, 0);
+		x1.add(v1).intoArray(celdas, carriles);
+		x2.add(v2).intoArray(celdas, 2 * carriles);
+		x3.add(v3).intoArray(celdas, 3 * carriles);
+		x4.add(v4).intoArray(celdas, 4 * carriles);
+		x5.add(v5).intoArray(celdas, 5 * carriles);
+		x6.add(v6).intoArray(celdas, 6 * carriles);
+		x7.add(v7).intoArray(celdas, 7 * carriles);
+		x8.add(v8).intoArray(celdas, 8 * carriles);
+		x9.add(v9).intoArray(celdas, 9 * carriles);
+		x10.add(v10).intoArray(celdas, 10 * carriles);
+		x11.add(v11).intoArray(celdas, 11 * carriles);
+		x12.add(v12).intoArray(celdas, 12 * carriles);
+		x13.add(v13).intoArray(celdas, 13 * carriles);
+		x14.add(v14).intoArray(celdas, 14 * carriles);
+		x15.add(v15).intoArray(celdas, 15 * carriles);
+
+		// Transponemos: el bloque b esta formado por el carril b de cada una de las 16 celdas
+		for (b = 0; b < bloques; b++) {
+			for (w = 0; w < 16; w++) {
+				INT_ARRAY.set(salida, offset + b * Salsa20.TAM_BLOQUE + w * 4, celdas[w * carriles + b]);
+			}
+		}
+	}
+}
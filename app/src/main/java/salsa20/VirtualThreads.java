@@ -0,0 +1,55 @@
+package salsa20;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Ejecutores para tareas que pasan la mayor parte del tiempo esperando I/O. Si la JVM tiene hilos virtuales (Java 21 o superior)
+ * se usa un hilo virtual por tarea; si no, un pool de hilos daemon que crece segun haga falta. Se busca por reflexion para que
+ * el proyecto siga compilando y corriendo en Java 17.
+ */
+final class VirtualThreads {
+
+	private static final Method NUEVO_EJECUTOR_VIRTUAL = buscarEjecutorVirtual();
+
+	private VirtualThreads() {
+	}
+
+	static boolean disponibles() {
+		return NUEVO_EJECUTOR_VIRTUAL != null;
+	}
+
+	// Un hilo virtual por tarea, o un pool de hilos daemon con el prefijo de nombre indicado
+	static ExecutorService porTarea(String nombre) {
+		if (NUEVO_EJECUTOR_VIRTUAL != null) {
+			try {
+				return (ExecutorService) NUEVO_EJECUTOR_VIRTUAL.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				// Seguimos con los hilos de plataforma
+			}
+		}
+		return Executors.newCachedThreadPool(hilosDaemon(nombre));
+	}
+
+	// Fabrica de hilos de plataforma daemon numerados, para los pools de computo
+	static ThreadFactory hilosDaemon(String nombre) {
+		AtomicInteger numero = new AtomicInteger();
+
+		return r -> {
+			Thread hilo = new Thread(r, nombre + "-" + numero.incrementAndGet());
+			hilo.setDaemon(true);
+			return hilo;
+		};
+	}
+
+	private static Method buscarEjecutorVirtual() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
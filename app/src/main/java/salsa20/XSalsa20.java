@@ -0,0 +1,143 @@
+package salsa20;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.AEADBadTagException;
+
+/*
+ * XSalsa20: Salsa20 con nonces de 24 bytes elegidos por quien llama. HSalsa20 deriva una subkey de la key y los primeros 16 bytes del nonce,
+ * y con esa subkey y los ultimos 8 bytes se cifra con Salsa20 normal. Como los nonces son lo bastante largos para elegirlos al azar,
+ * se pueden cifrar muchisimos mensajes con una misma key de larga duracion sin repetir nonce y sin generar una key por mensaje.
+ * seal y open son XSalsa20 + Poly1305, el mismo formato que crypto_secretbox de NaCl (tag || criptograma).
+ *
+ * Opcionalmente se guardan en un cache LRU acotado las subkeys ya derivadas, indexadas por el prefijo de 16 bytes del nonce (la key es
+ * siempre la de esta instancia). Sirve cuando muchos mensajes comparten el prefijo y solo cambian los ultimos 8 bytes, por ejemplo un prefijo
+ * al azar por sesion y un contador: en ese caso HSalsa20 se calcula una vez por prefijo y no una vez por mensaje.
+ * La clase es thread-safe.
+ */
+public final class XSalsa20 {
+
+	public static final int TAM_NONCE = 24;
+
+	private static final int TAM_PREFIJO = 16;
+
+	private static final VarHandle LONG_ARRAY = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final Salsa20Key key;
+
+	// Subkeys derivadas, de la menos a la mas usada recientemente. null si no hay cache
+	private final Map<Prefijo, Salsa20Key> cache;
+
+	// Sin cache: cada mensaje deriva su subkey. Las rondas (de Salsa20 y de HSalsa20) son las de la key
+	public XSalsa20(Salsa20Key key) {
+		this(key, 0);
+	}
+
+	// Con un cache de hasta tamCache subkeys (0 desactiva el cache)
+	public XSalsa20(Salsa20Key key, int tamCache) {
+		if (tamCache < 0) {
+			throw new IllegalArgumentException("El tamaño del cache no puede ser negativo");
+		}
+		this.key = key;
+		this.cache = tamCache == 0 ? null : new LinkedHashMap<Prefijo, Salsa20Key>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Prefijo, Salsa20Key> masViejo) {
+				return size() > tamCache;
+			}
+		};
+	}
+
+	public XSalsa20(byte[] key) {
+		this(new Salsa20Key(key));
+	}
+
+	// Subkey de Salsa20 para el nonce de 24 bytes (solo importan los primeros 16). Se usa con los ultimos 8 bytes como nonce
+	public Salsa20Key subkey(byte[] nonce) {
+		if (nonce == null || nonce.length != TAM_NONCE) {
+			throw new IllegalArgumentException("El nonce debe tener " + TAM_NONCE + " bytes");
+		}
+		if (cache == null) {
+			return key.derivarSubkey(nonce, 0);
+		}
+
+		Prefijo prefijo = new Prefijo((long) LONG_ARRAY.get(nonce, 0), (long) LONG_ARRAY.get(nonce, 8));
+		Salsa20Key subkey;
+
+		synchronized (cache) {
+			subkey = cache.get(prefijo);
+		}
+		// Si dos hilos derivan la misma subkey a la vez el resultado es el mismo, asi que no hace falta derivarla dentro del lock
+		if (subkey == null) {
+			subkey = key.derivarSubkey(nonce, 0);
+			synchronized (cache) {
+				cache.put(prefijo, subkey);
+			}
+		}
+		return subkey;
+	}
+
+	// Cifrador nuevo posicionado al principio del flujo de XSalsa20 para el nonce. No es thread-safe, es para un solo hilo
+	public Salsa20Cipher newCipher(byte[] nonce) {
+		Salsa20Cipher cifrador = new Salsa20Cipher();
+		cifrador.init(subkey(nonce), nonce, TAM_PREFIJO);
+		return cifrador;
+	}
+
+	// Cifra (o descifra) un mensaje completo con el nonce de 24 bytes, igual que Salsa20Key.encrypt
+	public void encrypt(byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		subkey(nonce).encrypt(nonce, TAM_PREFIJO, in, inOff, len, out, outOff);
+	}
+
+	// XSalsa20 + Poly1305: escribe tag || criptograma (len + 16 bytes) en out a partir de outOff, ver Salsa20Poly1305
+	public int seal(byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) {
+		return Salsa20Poly1305.seal(subkey(nonce), nonce, TAM_PREFIJO, in, inOff, len, out, outOff);
+	}
+
+	public byte[] seal(byte[] nonce, byte[] textoPlano) {
+		byte[] resultado = new byte[textoPlano.length + Salsa20Poly1305.TAM_TAG];
+
+		seal(nonce, textoPlano, 0, textoPlano.length, resultado, 0);
+		return resultado;
+	}
+
+	// Verifica y descifra tag || criptograma. Si el tag no coincide, la salida queda en cero y se lanza AEADBadTagException
+	public int open(byte[] nonce, byte[] in, int inOff, int len, byte[] out, int outOff) throws AEADBadTagException {
+		return Salsa20Poly1305.open(subkey(nonce), nonce, TAM_PREFIJO, in, inOff, len, out, outOff);
+	}
+
+	public byte[] open(byte[] nonce, byte[] criptograma) throws AEADBadTagException {
+		if (criptograma.length < Salsa20Poly1305.TAM_TAG) {
+			throw new AEADBadTagException("El criptograma es mas corto que el tag");
+		}
+
+		byte[] resultado = new byte[criptograma.length - Salsa20Poly1305.TAM_TAG];
+		open(nonce, criptograma, 0, criptograma.length, resultado, 0);
+		return resultado;
+	}
+
+	// Los primeros 16 bytes del nonce como clave del cache
+	private static final class Prefijo {
+		private final long bajo, alto;
+
+		Prefijo(long bajo, long alto) {
+			this.bajo = bajo;
+			this.alto = alto;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Prefijo && ((Prefijo) o).bajo == bajo && ((Prefijo) o).alto == alto;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(bajo * 31 + alto);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package salsa20;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Ida y vuelta del contenedor cifrado (ContainerWriter, ContainerReader y ContainerFormat): crear, flush, cerrar, agregar,
+ * key equivocada, lecturas que cruzan chunks, descifrarTodo y un indice dañado.
+ */
+class ContainerTest {
+
+	private static final byte[] KEY = "12345678901234567890123456789012".getBytes();
+	private static final byte[] OTRA_KEY = "22345678901234567890123456789012".getBytes();
+	private static final int TAM_CHUNK = 256;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void crearFlushYCerrar() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		byte[] datos = datos(1000, 1);
+
+		try (ContainerWriter escritor = ContainerWriter.crear(archivo, new Salsa20Key(KEY), new byte[8], TAM_CHUNK)) {
+			escritor.write(datos, 0, 300);
+			// Un flush cierra un chunk corto: el siguiente empieza en un offset que no es multiplo del tamaño de chunk
+			escritor.flush();
+			escritor.write(datos, 300, 700);
+			assertEquals(1000, escritor.size());
+		}
+
+		try (ContainerReader lector = ContainerReader.abrir(archivo, KEY)) {
+			assertEquals(1000, lector.size());
+			assertEquals(5, lector.chunks());
+			assertEquals(300, lector.offsetChunk(2));
+			assertEquals(44, lector.largoChunk(1));
+			assertArrayEquals(datos, lector.leer(0, 1000));
+		}
+	}
+
+	@Test
+	void leerRangosQueCruzanChunks() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		byte[] datos = datos(5000, 2);
+		escribir(archivo, datos);
+
+		try (ContainerReader lector = ContainerReader.abrir(archivo, KEY)) {
+			for (int[] rango : new int[][] { { 0, 1 }, { 250, 10 }, { 255, 1 }, { 256, 256 }, { 100, 3000 }, { 4999, 1 }, { 0, 5000 } }) {
+				assertArrayEquals(Arrays.copyOfRange(datos, rango[0], rango[0] + rango[1]), lector.leer(rango[0], rango[1]));
+			}
+			assertEquals(19, lector.chunkEn(4999));
+
+			byte[] chunk = new byte[TAM_CHUNK];
+			assertEquals(TAM_CHUNK, lector.leerChunk(3, chunk, 0));
+			assertArrayEquals(Arrays.copyOfRange(datos, 3 * TAM_CHUNK, 4 * TAM_CHUNK), chunk);
+		}
+	}
+
+	@Test
+	void descifrarTodo() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		Path salida = dir.resolve("a.bin");
+		byte[] datos = datos(10_000, 3);
+		escribir(archivo, datos);
+
+		try (ContainerReader lector = ContainerReader.abrir(archivo, KEY)) {
+			lector.descifrarTodo(salida);
+		}
+		assertArrayEquals(datos, Files.readAllBytes(salida));
+	}
+
+	@Test
+	void agregarAlFinal() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		byte[] datos = datos(3000, 4);
+		escribir(archivo, Arrays.copyOf(datos, 1000));
+
+		try (ContainerWriter escritor = ContainerWriter.agregar(archivo, KEY)) {
+			escritor.write(datos, 1000, 1500);
+		}
+		try (ContainerWriter escritor = ContainerWriter.agregar(archivo, KEY)) {
+			escritor.write(datos, 2500, 500);
+		}
+
+		try (ContainerReader lector = ContainerReader.abrir(archivo, KEY)) {
+			assertEquals(3000, lector.size());
+			assertArrayEquals(datos, lector.leer(0, 3000));
+		}
+	}
+
+	// Si el agregado no llega a cerrarse, el contenedor conserva lo que tenia
+	@Test
+	void agregarSinCerrarConservaElContenido() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		byte[] datos = datos(1000, 5);
+		escribir(archivo, datos);
+
+		ContainerWriter escritor = ContainerWriter.agregar(archivo, KEY);
+		escritor.write(new byte[600]);
+
+		try (ContainerReader lector = ContainerReader.abrir(archivo, KEY)) {
+			assertArrayEquals(datos, lector.leer(0, 1000));
+		}
+	}
+
+	@Test
+	void keyEquivocada() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		escribir(archivo, datos(100, 6));
+
+		assertThrows(IOException.class, () -> ContainerReader.abrir(archivo, OTRA_KEY));
+		assertThrows(IOException.class, () -> ContainerWriter.agregar(archivo, OTRA_KEY));
+	}
+
+	@Test
+	void contenedorSinCerrar() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+
+		ContainerWriter escritor = ContainerWriter.crear(archivo, new Salsa20Key(KEY), new byte[8], TAM_CHUNK);
+		escritor.write(new byte[600]);
+		escritor.flush();
+
+		assertThrows(IOException.class, () -> ContainerReader.abrir(archivo, KEY));
+	}
+
+	// Un chunk de largo 0 en el indice dejaria a leer sin avanzar: se rechaza al abrir
+	@Test
+	void indiceConChunkVacio() throws IOException {
+		Path archivo = dir.resolve("a.s20c");
+		escribir(archivo, datos(64, 7));
+
+		reescribirIndice(archivo, new long[][] { { 0, ContainerFormat.TAM_CABECERA, 0 }, { 0, ContainerFormat.TAM_CABECERA, 64 } });
+		assertThrows(IOException.class, () -> ContainerReader.abrir(archivo, KEY));
+
+		reescribirIndice(archivo, new long[][] { { 0, 0, 64 } });
+		assertThrows(IOException.class, () -> ContainerReader.abrir(archivo, KEY));
+	}
+
+	private static void escribir(Path archivo, byte[] datos) throws IOException {
+		try (ContainerWriter escritor = ContainerWriter.crear(archivo, new Salsa20Key(KEY), new byte[8], TAM_CHUNK)) {
+			escritor.write(datos);
+		}
+	}
+
+	// Agrega al final un indice con las entradas dadas (offset, posicion, largo) y apunta la cabecera a el
+	private static void reescribirIndice(Path archivo, long[][] entradas) throws IOException {
+		try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long posIndice = canal.size();
+			ByteBuffer indice = ByteBuffer.allocate(ContainerFormat.TAM_CABECERA_INDICE + entradas.length * ContainerFormat.TAM_ENTRADA)
+					.order(ByteOrder.LITTLE_ENDIAN);
+
+			indice.put(ContainerFormat.cabeceraIndice(entradas.length));
+			for (long[] entrada : entradas) {
+				indice.putLong(entrada[0]).putLong(entrada[1]).putInt((int) entrada[2]);
+			}
+			ContainerFormat.escribir(canal, posIndice, indice.flip());
+			ContainerFormat.escribir(canal, ContainerFormat.POS_PUNTERO_INDICE, ContainerFormat.punteroIndice(posIndice));
+		}
+	}
+
+	private static byte[] datos(int cantidad, long semilla) {
+		byte[] datos = new byte[cantidad];
+		new Random(semilla).nextBytes(datos);
+		return datos;
+	}
+}
@@ -0,0 +1,128 @@
+package salsa20;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Vectores de prueba publicados de eSTREAM (conjunto 1, vector 0: key de 256 bits 80 00 ... 00, nonce 00 ... 00) para Salsa20/20,
+ * Salsa20/12 y Salsa20/8, los mismos de la tabla del README. Se corren con Salsa20Key.encrypt, que usa el motor por defecto:
+ * la tarea test de gradle fija el motor escalar y testVectorial el vectorial. Ademas cada motor se prueba directamente con
+ * Salsa20Cipher, y el vectorial se compara con el escalar en varios grupos de bloques y en offsets que no empiezan en un bloque.
+ */
+class Salsa20KeyTest {
+
+	private static final String KEYSTREAM_20 = "E3BE8FDD8BECA2E3EA8EF9475B29A6E7003951E1097A5C38D23B7A5FAD9F6844"
+			+ "B22C97559E2723C7CBBD3FE4FC8D9A0744652A83E72A9C461876AF4D7EF1A117";
+	private static final String KEYSTREAM_12 = "AFE411ED1C4E07E4D0CDE3B33E31EC190FA4CC796A58BAFB848EAD8D07D02CD2"
+			+ "D4B6F9F30CB0B57007E3733895CC8D1060107975ACAEEB689B6CF614AB64A3D6";
+	private static final String KEYSTREAM_8 = "B1F599E9B0D96DF436AE31F5EF589565B92D245DB5A1D4C7A78E5E8D0146F8A4"
+			+ "9D326C1A3BF50C052C9C8F114DC74972C4469591E31C9ED11927AA9871F38583";
+
+	private static final byte[] NONCE = new byte[8];
+
+	@Test
+	void salsa20_20() {
+		assertArrayEquals(hex(KEYSTREAM_20), keystream(20));
+	}
+
+	@Test
+	void salsa20_12() {
+		assertArrayEquals(hex(KEYSTREAM_12), keystream(12));
+	}
+
+	@Test
+	void salsa20_8() {
+		assertArrayEquals(hex(KEYSTREAM_8), keystream(8));
+	}
+
+	// Si la tarea pide el motor vectorial, el que se uso tiene que ser el vectorial y no el escalar de respaldo
+	@Test
+	void motorPorDefectoEsElPedido() {
+		if ("vector".equals(System.getProperty("salsa20.motor"))) {
+			assertNotEquals("escalar", KeystreamEngine.porDefecto().nombre());
+		}
+	}
+
+	@Test
+	void cadaMotorDaLosVectoresPublicados() {
+		for (KeystreamEngine motor : motores()) {
+			assertArrayEquals(hex(KEYSTREAM_20), keystream(motor, 20, 0, 64), motor.nombre());
+			assertArrayEquals(hex(KEYSTREAM_12), keystream(motor, 12, 0, 64), motor.nombre());
+			assertArrayEquals(hex(KEYSTREAM_8), keystream(motor, 8, 0, 64), motor.nombre());
+		}
+	}
+
+	// Los vectores solo cubren el primer bloque: el resto de los carriles se compara contra el motor escalar
+	@Test
+	void motoresVectorialesIgualesAlEscalar() {
+		for (int rondas : new int[] { 20, 12, 8 }) {
+			for (long posicion : new long[] { 0, 7, 64 * 5 + 3, (1L << 32) * 64 - 100 }) {
+				byte[] esperado = keystream(KeystreamEngine.escalar(), rondas, posicion, 5000);
+
+				for (KeystreamEngine motor : motores()) {
+					assertArrayEquals(esperado, keystream(motor, rondas, posicion, 5000), motor.nombre() + " rondas " + rondas
+							+ " posicion " + posicion);
+				}
+			}
+		}
+	}
+
+	@Test
+	void encryptEsUnXorConElKeystream() {
+		Salsa20Key key = new Salsa20Key(key(), 20);
+		byte[] texto = new byte[64];
+		byte[] criptograma = new byte[64];
+		byte[] descifrado = new byte[64];
+
+		for (int i = 0; i < texto.length; i++) {
+			texto[i] = (byte) i;
+		}
+		key.encrypt(NONCE, texto, 0, 64, criptograma, 0);
+		byte[] keystream = hex(KEYSTREAM_20);
+		for (int i = 0; i < 64; i++) {
+			assertEquals((byte) (texto[i] ^ keystream[i]), criptograma[i]);
+		}
+		key.encrypt(NONCE, criptograma, 0, 64, descifrado, 0);
+		assertArrayEquals(texto, descifrado);
+	}
+
+	// Primeros 64 bytes de keystream con Salsa20Key.encrypt sobre ceros
+	private static byte[] keystream(int rondas) {
+		byte[] salida = new byte[64];
+
+		new Salsa20Key(key(), rondas).encrypt(NONCE, new byte[64], 0, 64, salida, 0);
+		return salida;
+	}
+
+	private static byte[] keystream(KeystreamEngine motor, int rondas, long posicion, int cantidad) {
+		Salsa20Cipher cifrador = new Salsa20Cipher(motor);
+		byte[] salida = new byte[cantidad];
+
+		cifrador.init(new Salsa20Key(key(), rondas), NONCE);
+		cifrador.seek(posicion);
+		cifrador.update(new byte[cantidad], 0, cantidad, salida, 0);
+		return salida;
+	}
+
+	// Sin el modulo jdk.incubator.vector los motores vectoriales son el escalar, y la prueba sigue siendo valida
+	private static List<KeystreamEngine> motores() {
+		return List.of(KeystreamEngine.escalar(), KeystreamEngine.vectorial(), KeystreamEngine.vectorial(4), KeystreamEngine.vectorial(8),
+				KeystreamEngine.vectorial(16));
+	}
+
+	private static byte[] key() {
+		byte[] key = new byte[32];
+		key[0] = (byte) 0x80;
+		return key;
+	}
+
+	private static byte[] hex(String texto) {
+		return HexFormat.of().parseHex(texto);
+	}
+}
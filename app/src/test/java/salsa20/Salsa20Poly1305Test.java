@@ -0,0 +1,88 @@
+package salsa20;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import javax.crypto.AEADBadTagException;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Poly1305 con el vector del RFC 8439 (seccion 2.5.2), de una vez y en pedazos que no coinciden con los bloques de 16 bytes,
+ * y Salsa20Poly1305: ida y vuelta, y un criptograma o tag modificado tiene que dar AEADBadTagException con la salida en cero.
+ */
+class Salsa20Poly1305Test {
+
+	private static final String KEY_RFC = "85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b";
+	private static final String TAG_RFC = "a8061dc1305136c6c22b8baf0c0127a9";
+	private static final byte[] MENSAJE_RFC = "Cryptographic Forum Research Group".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] KEY = "12345678901234567890123456789012".getBytes();
+	private static final byte[] NONCE = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	@Test
+	void poly1305Rfc8439() {
+		Poly1305 mac = new Poly1305();
+		byte[] tag = new byte[Poly1305.TAM_TAG];
+
+		mac.init(hex(KEY_RFC), 0);
+		mac.update(MENSAJE_RFC, 0, MENSAJE_RFC.length);
+		mac.doFinal(tag, 0);
+		assertArrayEquals(hex(TAG_RFC), tag);
+	}
+
+	// El bloque pendiente tiene que dar lo mismo que el mensaje entero
+	@Test
+	void poly1305EnPedazos() {
+		Poly1305 mac = new Poly1305();
+		byte[] tag = new byte[Poly1305.TAM_TAG];
+
+		mac.init(hex(KEY_RFC), 0);
+		mac.update(MENSAJE_RFC, 0, 5);
+		mac.update(MENSAJE_RFC, 5, 0);
+		mac.update(MENSAJE_RFC, 5, 20);
+		mac.update(MENSAJE_RFC, 25, MENSAJE_RFC.length - 25);
+		mac.doFinal(tag, 0);
+		assertArrayEquals(hex(TAG_RFC), tag);
+	}
+
+	@Test
+	void idaYVuelta() throws AEADBadTagException {
+		Salsa20Poly1305 aead = new Salsa20Poly1305(KEY);
+
+		for (int largo : new int[] { 0, 1, 16, 31, 32, 100, 20_000 }) {
+			byte[] texto = new byte[largo];
+			for (int i = 0; i < largo; i++) {
+				texto[i] = (byte) (i * 7);
+			}
+			assertArrayEquals(texto, aead.open(NONCE, aead.seal(NONCE, texto)), "largo " + largo);
+		}
+	}
+
+	@Test
+	void criptogramaModificado() {
+		Salsa20Poly1305 aead = new Salsa20Poly1305(KEY);
+		byte[] criptograma = aead.seal(NONCE, MENSAJE_RFC);
+		byte[] salida = new byte[MENSAJE_RFC.length];
+
+		// Un bit del criptograma y un bit del tag
+		for (int posicion : new int[] { Salsa20Poly1305.TAM_TAG + 3, 0 }) {
+			byte[] modificado = criptograma.clone();
+			modificado[posicion] ^= 1;
+			assertThrows(AEADBadTagException.class, () -> aead.open(NONCE, modificado, 0, modificado.length, salida, 0));
+			assertArrayEquals(new byte[salida.length], salida);
+		}
+
+		byte[] otroNonce = NONCE.clone();
+		otroNonce[0] ^= 1;
+		assertThrows(AEADBadTagException.class, () -> aead.open(otroNonce, criptograma));
+		assertThrows(AEADBadTagException.class, () -> aead.open(NONCE, new byte[Salsa20Poly1305.TAM_TAG - 1]));
+	}
+
+	private static byte[] hex(String texto) {
+		return HexFormat.of().parseHex(texto);
+	}
+}
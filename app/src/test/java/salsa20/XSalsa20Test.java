@@ -0,0 +1,69 @@
+package salsa20;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import javax.crypto.AEADBadTagException;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Vector de crypto_secretbox de NaCl (tests/secretbox.c): XSalsa20 + Poly1305 con un mensaje de 131 bytes. seal tiene que dar
+ * exactamente tag || criptograma (147 bytes), con y sin cache de subkeys, y open tiene que devolver el mensaje.
+ * encrypt solo cifra, asi que coincide con el criptograma corrido 32 bytes: los primeros 32 del keystream son la key de Poly1305.
+ */
+class XSalsa20Test {
+
+	private static final String KEY = "1b27556473e985d462cd51197a9a46c76009549eac6474f206c4ee0844f68389";
+	private static final String NONCE = "69696ee955b62b73cd62bda875fc73d68219e0036b7a0b37";
+	private static final String MENSAJE = "be075fc53c81f2d5cf141316ebeb0c7b5228c52a4c62cbd44b66849b64244ffc"
+			+ "e5ecbaaf33bd751a1ac728d45e6c61296cdc3c01233561f41db66cce314adb31"
+			+ "0e3be8250c46f06dceea3a7fa1348057e2f6556ad6b1318a024a838f21af1fde"
+			+ "048977eb48f59ffd4924ca1c60902e52f0a089bc76897040e082f93776384864"
+			+ "5e0705";
+	private static final String CAJA = "f3ffc7703f9400e52a7dfb4b3d3305d98e993b9f48681273c29650ba32fc76ce"
+			+ "48332ea7164d96a4476fb8c531a1186ac0dfc17c98dce87b4da7f011ec48c972"
+			+ "71d2c20f9b928fe2270d6fb863d51738b48eeee314a7cc8ab932164548e526ae"
+			+ "90224368517acfeabd6bb3732bc0e9da99832b61ca01b6de56244a9e88d5f9b3"
+			+ "7973f622a43d14a6599b1f654cb45a74e355a5";
+
+	@Test
+	void secretboxNacl() throws AEADBadTagException {
+		for (XSalsa20 xsalsa : new XSalsa20[] { new XSalsa20(hex(KEY)), new XSalsa20(new Salsa20Key(hex(KEY)), 4) }) {
+			assertArrayEquals(hex(CAJA), xsalsa.seal(hex(NONCE), hex(MENSAJE)));
+			assertArrayEquals(hex(MENSAJE), xsalsa.open(hex(NONCE), hex(CAJA)));
+		}
+	}
+
+	@Test
+	void secretboxModificado() {
+		byte[] caja = hex(CAJA);
+
+		caja[caja.length - 1] ^= 1;
+		assertThrows(AEADBadTagException.class, () -> new XSalsa20(hex(KEY)).open(hex(NONCE), caja));
+	}
+
+	// Con 32 bytes de ceros adelante, el mensaje se cifra en el byte 32 del keystream como en secretbox
+	@Test
+	void encryptConElKeystreamDeSecretbox() {
+		byte[] mensaje = hex(MENSAJE);
+		byte[] entrada = new byte[32 + mensaje.length];
+		byte[] salida = new byte[entrada.length];
+
+		System.arraycopy(mensaje, 0, entrada, 32, mensaje.length);
+		new XSalsa20(hex(KEY)).encrypt(hex(NONCE), entrada, 0, entrada.length, salida, 0);
+		assertArrayEquals(Arrays.copyOfRange(hex(CAJA), Salsa20Poly1305.TAM_TAG, hex(CAJA).length),
+				Arrays.copyOfRange(salida, 32, salida.length));
+
+		byte[] cifrado = new byte[salida.length];
+		new XSalsa20(hex(KEY)).newCipher(hex(NONCE)).update(entrada, 0, entrada.length, cifrado, 0);
+		assertArrayEquals(salida, cifrado);
+	}
+
+	private static byte[] hex(String texto) {
+		return HexFormat.of().parseHex(texto);
+	}
+}
@@ -0,0 +1,86 @@
+package salsa20;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Mide ImageManager.convertirBytes y escribirImagen sobre imagenes sinteticas cuadradas de pixeles aleatorios
+ * (que es como se ve una imagen cifrada). El contador "megabytes" del estado Salsa20Benchmark.Bytes da el throughput en MB/s.
+ * escribirImagen usa el PNG por defecto; las otras variantes escriben PNG sin compresion, BMP y PAM (ver FormatoImagen).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ImageManagerBenchmark {
+
+	@Param({ "256", "1024", "4096" })
+	public int lado;
+
+	private ImageManager imgManager;
+	private BufferedImage imagen;
+	private byte[] pixels;
+	private File salida;
+
+	@Setup
+	public void preparar() throws IOException {
+		Random r = new Random(23);
+
+		imgManager = new ImageManager();
+		imagen = new BufferedImage(lado, lado, BufferedImage.TYPE_INT_ARGB);
+		for (int i = 0; i < lado; i++) {
+			for (int j = 0; j < lado; j++) {
+				imagen.setRGB(j, i, r.nextInt());
+			}
+		}
+		pixels = imgManager.convertirBytes(imagen);
+		salida = File.createTempFile("salsa20-bench", ".png");
+	}
+
+	@TearDown
+	public void limpiar() {
+		salida.delete();
+	}
+
+	@Benchmark
+	public byte[] convertirBytes(Salsa20Benchmark.Bytes bytes) {
+		bytes.megabytes += pixels.length / 1e6;
+		return imgManager.convertirBytes(imagen);
+	}
+
+	@Benchmark
+	public void escribirImagen(Salsa20Benchmark.Bytes bytes) throws IOException {
+		bytes.megabytes += pixels.length / 1e6;
+		imgManager.escribirImagen(pixels, lado, lado, salida.getPath());
+	}
+
+	@Benchmark
+	public void escribirPngSinCompresion(Salsa20Benchmark.Bytes bytes) throws IOException {
+		bytes.megabytes += pixels.length / 1e6;
+		imgManager.escribirImagen(pixels, lado, lado, salida.getPath(), FormatoImagen.PNG, 0);
+	}
+
+	@Benchmark
+	public void escribirBmp(Salsa20Benchmark.Bytes bytes) throws IOException {
+		bytes.megabytes += pixels.length / 1e6;
+		imgManager.escribirImagen(pixels, lado, lado, salida.getPath(), FormatoImagen.BMP, -1);
+	}
+
+	@Benchmark
+	public void escribirPam(Salsa20Benchmark.Bytes bytes) throws IOException {
+		bytes.megabytes += pixels.length / 1e6;
+		imgManager.escribirImagen(pixels, lado, lado, salida.getPath(), FormatoImagen.PAM, -1);
+	}
+}
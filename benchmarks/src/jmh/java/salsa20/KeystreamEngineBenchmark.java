@@ -0,0 +1,58 @@
+package salsa20;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Compara los motores de keystream: el escalar, el vectorial con la forma de vector preferida de la CPU ("vector") y el vectorial
+ * con 4, 8 o 16 bloques por llamada, para cada variante
+ * de Salsa20 (20, 12 y 8 rondas).
+ * Si la JVM no tiene el modulo jdk.incubator.vector los motores vectoriales caen al escalar.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KeystreamEngineBenchmark {
+
+	@Param({ "escalar", "vector", "vector4", "vector8", "vector16" })
+	public String motor;
+
+	@Param({ "1024", "1048576" })
+	public int tamanio;
+
+	@Param({ "20", "12", "8" })
+	public int rondas;
+
+	private KeystreamEngine motorKeystream;
+	private int[] estado;
+	private byte[] keystream;
+
+	@Setup
+	public void preparar() {
+		byte[] key = new byte[32];
+		new Random(23).nextBytes(key);
+
+		estado = new int[16];
+		keystream = new byte[tamanio];
+		Salsa20.generarMatrizInicial(estado, key, Salsa20.NONCE);
+		motorKeystream = motor.equals("escalar") ? KeystreamEngine.escalar()
+				: motor.equals("vector") ? KeystreamEngine.vectorial()
+						: KeystreamEngine.vectorial(Integer.parseInt(motor.substring("vector".length())));
+	}
+
+	@Benchmark
+	public byte[] generarBloques(Salsa20Benchmark.Bytes bytes) {
+		motorKeystream.generarBloques(estado, rondas, 0, tamanio / Salsa20.TAM_BLOQUE, keystream, 0);
+		bytes.megabytes += tamanio / 1e6;
+		return keystream;
+	}
+}
@@ -0,0 +1,89 @@
+package salsa20;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Muchos mensajes chicos bajo una sola key: Salsa20Batch contra un Salsa20Key.encrypt por mensaje y contra Salsa20.encriptar
+ * (que reserva la salida y carga la key en cada llamada). Cada invocacion cifra MENSAJES mensajes, asi que el modo Throughput
+ * da mensajes por microsegundo (x 10^6 = mensajes/s) y el modo SampleTime da los percentiles (p99 incluido) del tiempo por mensaje.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(Salsa20BatchBenchmark.MENSAJES)
+public class Salsa20BatchBenchmark {
+
+	static final int MENSAJES = 64;
+
+	@Param({ "16", "64", "256" })
+	public int tamanio;
+
+	private Salsa20 salsa;
+	private byte[] bytesKey;
+	private Salsa20Key key;
+	private Salsa20Batch lote;
+	private byte[] nonces;
+	private byte[] nonce;
+	private byte[] entrada;
+	private byte[] salida;
+
+	@Setup
+	public void preparar() {
+		Random r = new Random(23);
+
+		bytesKey = new byte[32];
+		nonces = new byte[8 * MENSAJES];
+		entrada = new byte[tamanio * MENSAJES];
+		salida = new byte[tamanio * MENSAJES];
+		r.nextBytes(bytesKey);
+		r.nextBytes(nonces);
+		r.nextBytes(entrada);
+
+		salsa = new Salsa20();
+		key = new Salsa20Key(bytesKey);
+		lote = new Salsa20Batch(key, KeystreamEngine.porDefecto(), MENSAJES);
+		nonce = new byte[8];
+	}
+
+	@Benchmark
+	public byte[] lote() {
+		for (int i = 0; i < MENSAJES; i++) {
+			lote.add(nonces, 8 * i, entrada, tamanio * i, tamanio, salida, tamanio * i);
+		}
+		lote.encryptAll();
+		return salida;
+	}
+
+	@Benchmark
+	public byte[] individual() {
+		for (int i = 0; i < MENSAJES; i++) {
+			System.arraycopy(nonces, 8 * i, nonce, 0, 8);
+			key.encrypt(nonce, entrada, tamanio * i, tamanio, salida, tamanio * i);
+		}
+		return salida;
+	}
+
+	// El camino original: un arreglo nuevo y una key cargada de nuevo por mensaje (con el nonce fijo de Salsa20)
+	@Benchmark
+	public byte[] encriptar() {
+		byte[] mensaje = new byte[tamanio];
+		byte[] criptograma = null;
+
+		for (int i = 0; i < MENSAJES; i++) {
+			System.arraycopy(entrada, tamanio * i, mensaje, 0, tamanio);
+			criptograma = salsa.encriptar(mensaje, bytesKey);
+		}
+		return criptograma;
+	}
+}
@@ -0,0 +1,83 @@
+package salsa20;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Mide Salsa20.encriptar para mensajes de 64 B a 64 MB y la generacion de keystream sola (sin XOR ni memoria de entrada/salida).
+ * El contador "megabytes" de cada benchmark da el throughput en MB/s, la latencia promedio sale del modo AverageTime
+ * y la tasa de asignacion del profiler gc configurado en build.gradle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Salsa20Benchmark {
+
+	@Param({ "64", "1024", "16384", "1048576", "67108864" })
+	public int tamanio;
+
+	private Salsa20 salsa;
+	private byte[] key;
+	private byte[] textoPlano;
+	private int[] estado;
+	private byte[] keystream;
+
+	// Cantidad de megabytes procesados, JMH la reporta como tasa por segundo (MB/s)
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes {
+		public double megabytes;
+
+		@Setup(Level.Iteration)
+		public void reiniciar() {
+			megabytes = 0;
+		}
+	}
+
+	@Setup
+	public void preparar() {
+		Random r = new Random(23);
+
+		salsa = new Salsa20();
+		key = new byte[32];
+		textoPlano = new byte[tamanio];
+		r.nextBytes(key);
+		r.nextBytes(textoPlano);
+
+		estado = new int[16];
+		keystream = new byte[tamanio];
+		Salsa20.generarMatrizInicial(estado, key, Salsa20.NONCE);
+	}
+
+	@Benchmark
+	public byte[] encriptar(Bytes bytes) {
+		bytes.megabytes += tamanio / 1e6;
+		return salsa.encriptar(textoPlano, key);
+	}
+
+	// Solo el nucleo de Salsa20: bloques de keystream escritos en un buffer reutilizado
+	@Benchmark
+	public byte[] keystream(Bytes bytes) {
+		long bloque = 0;
+
+		for (int offset = 0; offset + Salsa20.TAM_BLOQUE <= tamanio; offset += Salsa20.TAM_BLOQUE) {
+			estado[8] = (int) bloque;
+			estado[9] = (int) (bloque >>> 32);
+			Salsa20.generarBloque(estado, Salsa20.RONDAS, keystream, offset);
+			bloque++;
+		}
+		bytes.megabytes += tamanio / 1e6;
+		return keystream;
+	}
+}
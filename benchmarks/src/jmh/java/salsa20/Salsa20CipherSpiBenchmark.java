@@ -0,0 +1,90 @@
+package salsa20;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Cipher.update del proveedor de JCA (arrays y ByteBuffers directos) contra Salsa20Cipher usado directamente, y contra un adaptador
+ * que copia los datos para pasar por Salsa20.encriptar. El throughput en MB/s sale del contador "megabytes" de Salsa20Benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Salsa20CipherSpiBenchmark {
+
+	@Param({ "1024", "1048576" })
+	public int tamanio;
+
+	private byte[] key;
+	private byte[] entrada;
+	private byte[] salida;
+	private ByteBuffer entradaDirecta;
+	private ByteBuffer salidaDirecta;
+	private Cipher cipher;
+	private Salsa20Cipher cifrador;
+	private Salsa20 salsa;
+
+	@Setup
+	public void preparar() throws Exception {
+		Random r = new Random(23);
+
+		key = new byte[32];
+		entrada = new byte[tamanio];
+		salida = new byte[tamanio];
+		r.nextBytes(key);
+		r.nextBytes(entrada);
+		entradaDirecta = ByteBuffer.allocateDirect(tamanio).put(entrada);
+		salidaDirecta = ByteBuffer.allocateDirect(tamanio);
+
+		cipher = Cipher.getInstance("Salsa20", new Salsa20Provider());
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "Salsa20"), new IvParameterSpec(Salsa20.NONCE));
+		cifrador = new Salsa20Cipher();
+		cifrador.init(key, Salsa20.NONCE);
+		salsa = new Salsa20();
+	}
+
+	@Benchmark
+	public byte[] cipherArrays(Salsa20Benchmark.Bytes bytes) throws Exception {
+		cipher.update(entrada, 0, tamanio, salida, 0);
+		bytes.megabytes += tamanio / 1e6;
+		return salida;
+	}
+
+	@Benchmark
+	public ByteBuffer cipherDirectos(Salsa20Benchmark.Bytes bytes) throws Exception {
+		entradaDirecta.clear();
+		salidaDirecta.clear();
+		cipher.update(entradaDirecta, salidaDirecta);
+		bytes.megabytes += tamanio / 1e6;
+		return salidaDirecta;
+	}
+
+	@Benchmark
+	public byte[] salsa20Cipher(Salsa20Benchmark.Bytes bytes) {
+		cifrador.update(entrada, 0, tamanio, salida, 0);
+		bytes.megabytes += tamanio / 1e6;
+		return salida;
+	}
+
+	// El adaptador de antes: un array nuevo por llamada y una copia a la salida
+	@Benchmark
+	public byte[] adaptador(Salsa20Benchmark.Bytes bytes) {
+		System.arraycopy(salsa.encriptar(entrada, key), 0, salida, 0, tamanio);
+		bytes.megabytes += tamanio / 1e6;
+		return salida;
+	}
+}
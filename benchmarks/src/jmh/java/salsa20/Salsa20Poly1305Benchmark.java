@@ -0,0 +1,72 @@
+package salsa20;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.AEADBadTagException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Costo de autenticar: Salsa20 solo contra Salsa20 + Poly1305 en una pasada (seal y open), escribiendo en buffers reutilizados.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Salsa20Poly1305Benchmark {
+
+	@Param({ "64", "1024", "16384", "1048576" })
+	public int tamanio;
+
+	private Salsa20Key key;
+	private Salsa20Poly1305 aead;
+	private byte[] nonce;
+	private byte[] textoPlano;
+	private byte[] criptograma;
+	private byte[] salida;
+
+	@Setup
+	public void preparar() {
+		Random r = new Random(23);
+		byte[] bytesKey = new byte[32];
+
+		nonce = new byte[8];
+		textoPlano = new byte[tamanio];
+		r.nextBytes(bytesKey);
+		r.nextBytes(nonce);
+		r.nextBytes(textoPlano);
+
+		key = new Salsa20Key(bytesKey);
+		aead = new Salsa20Poly1305(key);
+		criptograma = aead.seal(nonce, textoPlano);
+		salida = new byte[tamanio + Salsa20Poly1305.TAM_TAG];
+	}
+
+	@Benchmark
+	public byte[] soloCifrado(Salsa20Benchmark.Bytes bytes) {
+		key.encrypt(nonce, textoPlano, 0, tamanio, salida, 0);
+		bytes.megabytes += tamanio / 1e6;
+		return salida;
+	}
+
+	@Benchmark
+	public byte[] seal(Salsa20Benchmark.Bytes bytes) {
+		aead.seal(nonce, textoPlano, 0, tamanio, salida, 0);
+		bytes.megabytes += tamanio / 1e6;
+		return salida;
+	}
+
+	@Benchmark
+	public byte[] open(Salsa20Benchmark.Bytes bytes) throws AEADBadTagException {
+		aead.open(nonce, criptograma, 0, criptograma.length, salida, 0);
+		bytes.megabytes += tamanio / 1e6;
+		return salida;
+	}
+}
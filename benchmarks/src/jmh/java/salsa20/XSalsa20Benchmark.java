@@ -0,0 +1,73 @@
+package salsa20;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Mensajes chicos con XSalsa20 + Poly1305 bajo una sola key: un nonce distinto por mensaje (prefijo fijo y contador en los ultimos 8 bytes),
+ * con y sin el cache de subkeys, contra crear una Salsa20Key nueva por mensaje.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XSalsa20Benchmark {
+
+	@Param({ "64", "1024" })
+	public int tamanio;
+
+	@Param({ "0", "64" })
+	public int tamCache;
+
+	private byte[] bytesKey;
+	private XSalsa20 xsalsa;
+	private byte[] nonce;
+	private byte[] textoPlano;
+	private byte[] salida;
+	private long contador;
+
+	@Setup
+	public void preparar() {
+		Random r = new Random(23);
+
+		bytesKey = new byte[32];
+		nonce = new byte[XSalsa20.TAM_NONCE];
+		textoPlano = new byte[tamanio];
+		r.nextBytes(bytesKey);
+		r.nextBytes(nonce);
+		r.nextBytes(textoPlano);
+
+		xsalsa = new XSalsa20(new Salsa20Key(bytesKey), tamCache);
+		salida = new byte[tamanio + Salsa20Poly1305.TAM_TAG];
+	}
+
+	@Benchmark
+	public byte[] xsalsaSeal() {
+		siguienteNonce();
+		xsalsa.seal(nonce, textoPlano, 0, tamanio, salida, 0);
+		return salida;
+	}
+
+	// Lo que se hacia antes: una key nueva por mensaje para no repetir el nonce
+	@Benchmark
+	public byte[] keyPorMensaje() {
+		bytesKey[0]++;
+		new Salsa20Poly1305(new Salsa20Key(bytesKey)).seal(Salsa20.NONCE, textoPlano, 0, tamanio, salida, 0);
+		return salida;
+	}
+
+	private void siguienteNonce() {
+		contador++;
+		for (int i = 0; i < 8; i++) {
+			nonce[16 + i] = (byte) (contador >>> (8 * i));
+		}
+	}
+}